@@ -0,0 +1,100 @@
+package com.squirrel7ang.umlgenerator.benchmark;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.type.Type;
+import com.squirrel7ang.umlgenerator.ClassModel;
+import com.squirrel7ang.umlgenerator.ModelExtractor;
+import com.squirrel7ang.umlgenerator.ParserConfig;
+import com.squirrel7ang.umlgenerator.SourceScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reducing already parsed files to class models, the hot path of every worker thread.
+ * Run with {@code -prof gc} to see the allocation per operation ({@code gc.alloc.rate.norm});
+ * printTypes is what printing every type and modifier, as extraction used to do, costs on the same files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractionBenchmarks {
+    @Param({"1000"})
+    public int classes;
+
+    private Path dir;
+    private final List<CompilationUnit> units = new ArrayList<>();
+    private final ModelExtractor extractor = new ModelExtractor();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("umlgenerator-bench");
+        new SyntheticProject(dir.resolve("src"), classes).generate();
+        ParserConfiguration configuration = new ParserConfiguration();
+        configuration.setStoreTokens(false);
+        configuration.setAttributeComments(false);
+        JavaParser parser = new JavaParser(configuration);
+        for (Path file: new SourceScanner(new ParserConfig()).scan(dir.resolve("src"))) {
+            parser.parse(file).getResult().ifPresent(units::add);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        StageBenchmarks.delete(dir);
+    }
+
+    @Benchmark
+    public List<ClassModel> extract() {
+        List<ClassModel> models = new ArrayList<>();
+        for (CompilationUnit cu: units) {
+            String packageName = cu.getPackageDeclaration().isPresent()
+                    ? cu.getPackageDeclaration().get().getNameAsString() : "";
+            for (TypeDeclaration<?> type: cu.getTypes()) {
+                if (type instanceof ClassOrInterfaceDeclaration) {
+                    models.add(extractor.extract((ClassOrInterfaceDeclaration) type, packageName, cu.getImports()));
+                }
+            }
+        }
+        return models;
+    }
+
+    @Benchmark
+    public long printTypes() {
+        long length = 0;
+        for (CompilationUnit cu: units) {
+            for (Type type: cu.findAll(Type.class)) {
+                length += type.toString().length();
+            }
+            for (Modifier modifier: cu.findAll(Modifier.class)) {
+                length += modifier.toString().length();
+            }
+        }
+        return length;
+    }
+}
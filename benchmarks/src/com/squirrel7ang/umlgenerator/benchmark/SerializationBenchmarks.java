@@ -0,0 +1,108 @@
+package com.squirrel7ang.umlgenerator.benchmark;
+
+import com.squirrel7ang.umlgenerator.ElementId;
+import com.squirrel7ang.umlgenerator.MdjWriter;
+import com.squirrel7ang.umlgenerator.ParserConfig;
+import com.squirrel7ang.umlgenerator.ProjectParser;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing the model, which is mostly attributes and parameters. Run with {@code -prof gc} to see the
+ * allocation per operation ({@code gc.alloc.rate.norm}): attributes writes {@code members} attributes the way
+ * the parser does, jsonAttributes builds them as org.json objects first, as the parser used to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializationBenchmarks {
+    @Param({"1000"})
+    public int classes;
+
+    @Param({"10000"})
+    public int members;
+
+    private Path dir;
+    private ProjectParser parser;
+    private final MdjWriter buffer = new MdjWriter(false);
+    private final ElementId classId = ElementId.of("Model:bench.Order");
+    private final ElementId typeId = ElementId.of("Model:bench.Customer");
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("umlgenerator-bench");
+        new SyntheticProject(dir.resolve("src"), classes).generate();
+        parser = new ProjectParser(dir.resolve("src").toFile(), new ParserConfig());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        StageBenchmarks.delete(dir);
+    }
+
+    /**
+     * The whole model, without the cost of the file system.
+     */
+    @Benchmark
+    public long writeStaruml() throws IOException {
+        StageBenchmarks.CountingChannel channel = new StageBenchmarks.CountingChannel();
+        parser.writeStaruml(channel);
+        return channel.count;
+    }
+
+    @Benchmark
+    public int attributes() throws IOException {
+        buffer.reset(0);
+        buffer.beginArray();
+        for (int i = 0; i < members; i++) {
+            buffer.beginObject();
+            buffer.name("_type").value("UMLAttribute");
+            buffer.name("_id").id(ElementId.mix(classId.hash(), '#', "field"));
+            buffer.name("_parent").ref(classId);
+            buffer.name("name").value("field");
+            buffer.name("visibility").value("private");
+            buffer.name("type").ref(typeId);
+            buffer.endObject();
+        }
+        buffer.endArray();
+        return buffer.getDepth();
+    }
+
+    @Benchmark
+    public int jsonAttributes() throws IOException {
+        buffer.reset(0);
+        buffer.beginArray();
+        for (int i = 0; i < members; i++) {
+            JSONObject json = new JSONObject();
+            json.put("_type", "UMLAttribute");
+            json.put("_id", classId.child('#', "field").toString());
+            json.put("_parent", new JSONObject().put("$ref", classId.toString()));
+            json.put("name", "field");
+            json.put("visibility", "private");
+            json.put("type", new JSONObject().put("$ref", typeId.toString()));
+            buffer.value(json);
+        }
+        buffer.endArray();
+        return buffer.getDepth();
+    }
+}
@@ -0,0 +1,69 @@
+package com.squirrel7ang.umlgenerator.benchmark;
+
+import com.squirrel7ang.umlgenerator.ParserConfig;
+import com.squirrel7ang.umlgenerator.ProjectParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Checks that --max-memory changes nothing in the output: generates a project in memory and with a few budgets,
+ * down to one edge per run, and compares the bytes. The project has classes with several relations of a kind
+ * named out of the order of their classes, e.g. {@code class A implements Z, B}, and repeated aggregations.
+ * Exits with 1 if any output differs.
+ */
+public class SpillCheck {
+    private static final long[] BUDGETS = {64, 4 << 10, 1 << 20};
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("umlgenerator-spill");
+        boolean same = true;
+        try {
+            Path src = dir.resolve("src");
+            new SyntheticProject(src, args.length > 0 ? Integer.parseInt(args[0]) : 300).generate();
+            writeRelations(src.resolve("check"));
+            byte[] expected = generate(src, 0);
+            for (long budget: BUDGETS) {
+                boolean match = Arrays.equals(expected, generate(src, budget));
+                System.out.println((match ? "same     " : "DIFFERS  ") + "--max-memory " + budget);
+                same &= match;
+            }
+        }
+        finally {
+            StageBenchmarks.delete(dir);
+        }
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    private static byte[] generate(Path src, long budget) throws IOException {
+        ParserConfig config = new ParserConfig();
+        config.setMemoryBudget(budget);
+        ProjectParser parser = new ProjectParser(src.toFile(), config);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        parser.writeStaruml(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    // interfaces B, C, D and Z, and classes implementing and holding them in another order
+    private static void writeRelations(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        for (String name: new String[] {"B", "C", "D", "Z"}) {
+            write(dir, name, "public interface " + name + " {\n}\n");
+        }
+        write(dir, "A", "import java.util.List;\n\npublic class A implements Z, D, B, C {\n"
+                + "    private Z z;\n    private List<C> cs;\n    private B b;\n    private Z other;\n    private D d;\n}\n");
+        write(dir, "E", "public class E extends A implements C, Z, B {\n    private A first;\n    private A second;\n}\n");
+    }
+
+    private static void write(Path dir, String name, String body) throws IOException {
+        String source = "package check;\n\n" + body;
+        Files.write(dir.resolve(name + ".java"), source.getBytes(StandardCharsets.UTF_8));
+    }
+}
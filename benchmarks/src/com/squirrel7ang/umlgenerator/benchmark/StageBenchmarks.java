@@ -0,0 +1,146 @@
+package com.squirrel7ang.umlgenerator.benchmark;
+
+import com.squirrel7ang.umlgenerator.ParserConfig;
+import com.squirrel7ang.umlgenerator.ProjectParser;
+import com.squirrel7ang.umlgenerator.SourceScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per stage of {@link ProjectParser}, on a synthetic tree of {@code classes} types.
+ * Every stage runs on the output of the previous ones, which are done once in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class StageBenchmarks {
+    @Param({"1000", "10000", "100000"})
+    public int classes;
+
+    private Path dir;
+    private ParserConfig config;
+    private ProjectParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("umlgenerator-bench");
+        new SyntheticProject(dir.resolve("src"), classes).generate();
+        config = new ParserConfig();
+        parser = new ProjectParser(dir.resolve("src").toFile(), config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        delete(dir);
+    }
+
+    static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e) throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Finding the source files.
+     */
+    @Benchmark
+    public List<Path> walk() throws IOException {
+        return new SourceScanner(config).scan(dir.resolve("src"));
+    }
+
+    /**
+     * Reading, parsing and reducing every source file to its class models.
+     */
+    @Benchmark
+    public ProjectParser convertToJp() {
+        parser.convertToJp();
+        return parser;
+    }
+
+    /**
+     * Assigning ids and resolving generalizations, realizations and aggregations.
+     */
+    @Benchmark
+    public ProjectParser prepareModel() {
+        parser.prepareModel();
+        return parser;
+    }
+
+    /**
+     * Resolving the model again, then building and serializing the elements, without the cost of the file system.
+     */
+    @Benchmark
+    public long writeStaruml() throws IOException {
+        CountingChannel channel = new CountingChannel();
+        parser.writeStaruml(channel);
+        return channel.count;
+    }
+
+    /**
+     * The whole output stage, into a real file.
+     */
+    @Benchmark
+    public long outputStaruml() {
+        File output = dir.resolve("uml.mdj").toFile();
+        parser.outputStaruml(output.getPath());
+        return output.length();
+    }
+
+    // swallows the output, only counting it so that nothing can be optimized away
+    static class CountingChannel implements WritableByteChannel {
+        long count = 0;
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            count += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
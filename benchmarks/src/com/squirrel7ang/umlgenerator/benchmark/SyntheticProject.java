@@ -0,0 +1,167 @@
+package com.squirrel7ang.umlgenerator.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a source tree shaped like a Unit-4 homework, only bigger: packages of {@link #PACKAGE_SIZE} types,
+ * each package with one interface, one base class and subclasses that hold generic collections of their
+ * neighbours and carry {@code @Trigger}/{@code @Triggers} annotations. The same size always gives the same tree.
+ */
+public class SyntheticProject {
+    public static final int PACKAGE_SIZE = 100;
+    private static final String[] STATES = {"InitState", "Idle", "Reserved", "Borrowed", "Returned", "FinalState"};
+
+    private final Path root;
+    private final int classes;
+
+    public SyntheticProject(Path root, int classes) {
+        this.root = root;
+        this.classes = classes;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    public int getClasses() {
+        return classes;
+    }
+
+    public void generate() throws IOException {
+        writeAnnotations();
+        for (int i = 0; i < classes; i++) {
+            int pkg = i / PACKAGE_SIZE;
+            int index = i % PACKAGE_SIZE;
+            String source;
+            if (index == 0) {
+                source = interfaceSource(pkg);
+            }
+            else if (index == 1) {
+                source = baseSource(pkg);
+            }
+            else {
+                source = entitySource(pkg, i);
+            }
+            write(packageDir(pkg).resolve(typeName(pkg, i) + ".java"), source);
+        }
+    }
+
+    private static String packageName(int pkg) {
+        return "bench.p" + pkg;
+    }
+
+    private Path packageDir(int pkg) {
+        return root.resolve("bench").resolve("p" + pkg);
+    }
+
+    private static String typeName(int pkg, int i) {
+        int index = i % PACKAGE_SIZE;
+        if (index == 0) {
+            return "Service" + pkg;
+        }
+        if (index == 1) {
+            return "Base" + pkg;
+        }
+        return "Entity" + i;
+    }
+
+    private static String interfaceSource(int pkg) {
+        StringBuilder sb = header(pkg);
+        sb.append("public interface Service").append(pkg).append(" {\n");
+        sb.append("    void handle(String request);\n\n");
+        sb.append("    int size();\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String baseSource(int pkg) {
+        StringBuilder sb = header(pkg);
+        sb.append("import java.util.ArrayList;\n\n");
+        sb.append("public abstract class Base").append(pkg)
+                .append(" implements Service").append(pkg).append(" {\n");
+        sb.append("    protected static int created;\n");
+        sb.append("    private String id;\n");
+        sb.append("    protected ArrayList<String> log;\n\n");
+        sb.append("    public abstract void handle(String request);\n\n");
+        sb.append("    public int size() {\n");
+        sb.append("        return log.size();\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String entitySource(int pkg, int i) {
+        StringBuilder sb = header(pkg);
+        boolean crossPackage = pkg > 0 && i % 7 == 0;
+        sb.append("import java.util.HashMap;\n");
+        sb.append("import java.util.List;\n");
+        sb.append("import com.oocourse.library3.annotation.Trigger;\n");
+        sb.append("import com.oocourse.library3.annotation.Triggers;\n");
+        if (crossPackage) {
+            sb.append("import ").append(packageName(pkg - 1)).append(".Base").append(pkg - 1).append(";\n");
+        }
+        sb.append('\n');
+
+        String previous = i % PACKAGE_SIZE == 2 ? "Base" + pkg : "Entity" + (i - 1);
+        sb.append("public class Entity").append(i).append(" extends Base").append(pkg).append(" {\n");
+        sb.append("    private int count;\n");
+        sb.append("    private String name;\n");
+        sb.append("    private ").append(previous).append(" parent;\n");
+        sb.append("    private List<").append(previous).append("> children;\n");
+        sb.append("    private HashMap<String, List<Service").append(pkg).append(">> index;\n");
+        if (crossPackage) {
+            sb.append("    private Base").append(pkg - 1).append(" neighbour;\n");
+        }
+        sb.append("    public static final long SERIAL = ").append(i).append("L;\n\n");
+
+        String from = STATES[i % (STATES.length - 1)];
+        String to = STATES[i % (STATES.length - 1) + 1];
+        sb.append("    @Trigger(from = \"").append(from).append("\", to = \"").append(to).append("\")\n");
+        sb.append("    public void handle(String request) {\n");
+        sb.append("        count++;\n");
+        sb.append("        name = request;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    @Triggers(value = {\n");
+        sb.append("        @Trigger(from = \"").append(to).append("\", to = {\"Idle\", \"FinalState\"}),\n");
+        sb.append("        @Trigger(from = \"Idle\", to = \"").append(from).append("\")\n");
+        sb.append("    })\n");
+        sb.append("    protected boolean reset(int times, ").append(previous).append(" from) {\n");
+        sb.append("        for (int k = 0; k < times; k++) {\n");
+        sb.append("            count = 0;\n");
+        sb.append("        }\n");
+        sb.append("        return from != null;\n");
+        sb.append("    }\n\n");
+
+        sb.append("    public List<").append(previous).append("> getChildren() {\n");
+        sb.append("        return children;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static StringBuilder header(int pkg) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("/*\n * generated for benchmarking\n */\n");
+        sb.append("package ").append(packageName(pkg)).append(";\n\n");
+        return sb;
+    }
+
+    // the annotations live in the excluded package, like in the homework skeleton
+    private void writeAnnotations() throws IOException {
+        Path dir = root.resolve("com").resolve("oocourse").resolve("library3").resolve("annotation");
+        String pkg = "package com.oocourse.library3.annotation;\n\n";
+        write(dir.resolve("Trigger.java"), pkg + "import java.lang.annotation.Repeatable;\n\n"
+                + "@Repeatable(Triggers.class)\npublic @interface Trigger {\n"
+                + "    String from();\n\n    String[] to();\n}\n");
+        write(dir.resolve("Triggers.java"), pkg + "public @interface Triggers {\n    Trigger[] value();\n}\n");
+    }
+
+    private static void write(Path file, String source) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,153 @@
+package com.squirrel7ang.umlgenerator;
+
+import com.github.javaparser.JavaParser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates many projects in one JVM, so that startup, class loading and JIT warmup are paid once. The
+ * projects are spread over a fixed number of workers and every project is parsed on its own worker only,
+ * which keeps all cores busy without oversubscribing them. A project that fails is reported and skipped.
+ */
+public class Batch {
+    private final ParserConfig config; // for every project, with one thread each
+    private final int workers;
+    // the projects are all parsed the same way, so a worker keeps its parser from one project to the next
+    private final ThreadLocal<JavaParser> parsers;
+
+    public Batch(ParserConfig config) {
+        this.config = new ParserConfig(config);
+        this.config.setThreads(1);
+        this.workers = config.getThreads();
+        this.parsers = ProjectParser.parsers(this.config);
+    }
+
+    /**
+     * Reads a manifest: a source directory (or pom.xml) and an output path per line, separated by a tab or,
+     * if neither has spaces, by spaces. Blank lines and lines starting with # are ignored, and relative paths
+     * are relative to the manifest.
+     */
+    public static List<Entry> readManifest(Path manifest) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Path dir = manifest.toAbsolutePath().getParent();
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.contains("\t") ? line.split("\t+") : line.split(" +");
+            if (fields.length != 2) {
+                throw new IOException(manifest + ":" + (i + 1) + ": a source root and an output path expected");
+            }
+            entries.add(new Entry(dir.resolve(fields[0].trim()).normalize(),
+                    dir.resolve(fields[1].trim()).normalize()));
+        }
+        return entries;
+    }
+
+    /**
+     * Generates every entry and prints a summary. Returns whether all of them succeeded.
+     */
+    public boolean run(List<Entry> entries) {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, entries.size())));
+        List<Future<Long>> results = new ArrayList<>();
+        for (Entry entry: entries) {
+            results.add(pool.submit(() -> generate(entry)));
+        }
+        List<String> failures = new ArrayList<>();
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                try {
+                    long nanos = results.get(i).get();
+                    System.out.printf("ok   %s -> %s, %.1f ms%n", entry.getRoot(), entry.getOutput(), nanos / 1e6);
+                }
+                catch (ExecutionException e) {
+                    String failure = entry.getRoot() + ": " + e.getCause();
+                    failures.add(failure);
+                    System.out.println("FAIL " + failure);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.add("interrupted");
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d succeeded, %d failed, %.2f s, %.1f projects/s on %d workers%n",
+                entries.size() - failures.size(), failures.size(), seconds, entries.size() / seconds,
+                Math.min(workers, entries.size()));
+        for (String failure: failures) {
+            System.out.println("  " + failure);
+        }
+        return failures.isEmpty();
+    }
+
+    // returns the time it took
+    private long generate(Entry entry) throws IOException {
+        long start = System.nanoTime();
+        ProjectParser parser = new ProjectParser(config, parsers);
+        for (SourceModule module: new ModuleScanner().scan(entry.getRoot())) {
+            if (!Files.isDirectory(module.getRoot())) {
+                throw new IOException(module.getRoot() + " is not a directory");
+            }
+            parser.addModule(module);
+        }
+        parser.convertToJp();
+        Path parent = entry.getOutput().toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        // a project that fails halfway must not leave half an output behind, nor replace a good one
+        Path tmp = Files.createTempFile(parent, entry.getOutput().getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            parser.writeStaruml(channel);
+        }
+        catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, entry.getOutput(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, entry.getOutput(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public static class Entry {
+        private final Path root;
+        private final Path output;
+
+        public Entry(Path root, Path output) {
+            this.root = root;
+            this.output = output;
+        }
+
+        public Path getRoot() {
+            return root;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+    }
+}
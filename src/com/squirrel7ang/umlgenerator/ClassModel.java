@@ -0,0 +1,349 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the generator needs to know about one class or interface, without the AST it came from.
+ */
+public class ClassModel {
+    private final String name;
+    private final String packageName;
+    private final boolean isInterface;
+    private final List<String> imports = new ArrayList<>(); // single-type imports of its compilation unit
+    private final List<String> wildcardImports = new ArrayList<>(); // packages imported on demand
+    private final List<Attribute> attributes = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private final List<String> extendedTypes = new ArrayList<>();
+    private final List<String> implementedTypes = new ArrayList<>();
+    private final List<String> aggregatedTypes = new ArrayList<>(); // names of the types its fields hold, as written
+    private final List<Transition> triggers = new ArrayList<>();
+    private final List<Transition> sendMessages = new ArrayList<>();
+    private String module = ""; // the source module it was found in, set once the files are read
+
+    public ClassModel(String name, String packageName, boolean isInterface) {
+        this.name = name;
+        this.packageName = packageName;
+        this.isInterface = isInterface;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getQualifiedName() {
+        return SymbolTable.qualify(packageName, name);
+    }
+
+    public boolean isInterface() {
+        return isInterface;
+    }
+
+    public List<String> getImports() {
+        return imports;
+    }
+
+    public List<String> getWildcardImports() {
+        return wildcardImports;
+    }
+
+    public List<Attribute> getAttributes() {
+        return attributes;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public List<String> getExtendedTypes() {
+        return extendedTypes;
+    }
+
+    public List<String> getImplementedTypes() {
+        return implementedTypes;
+    }
+
+    public List<String> getAggregatedTypes() {
+        return aggregatedTypes;
+    }
+
+    public List<Transition> getTriggers() {
+        return triggers;
+    }
+
+    public List<Transition> getSendMessages() {
+        return sendMessages;
+    }
+
+    public String getModule() {
+        return module;
+    }
+
+    public void setModule(String module) {
+        this.module = module;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(name);
+        out.writeUTF(packageName);
+        out.writeBoolean(isInterface);
+        writeStrings(out, imports);
+        writeStrings(out, wildcardImports);
+        out.writeInt(attributes.size());
+        for (Attribute attribute: attributes) {
+            attribute.write(out);
+        }
+        out.writeInt(operations.size());
+        for (Operation operation: operations) {
+            operation.write(out);
+        }
+        writeStrings(out, extendedTypes);
+        writeStrings(out, implementedTypes);
+        writeStrings(out, aggregatedTypes);
+        writeTransitions(out, triggers);
+        writeTransitions(out, sendMessages);
+    }
+
+    public static ClassModel read(DataInput in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Reads a model, sharing its member and type names through symbols unless it is null.
+     */
+    public static ClassModel read(DataInput in, SymbolPool symbols) throws IOException {
+        ClassModel model = new ClassModel(in.readUTF(), in.readUTF(), in.readBoolean());
+        readStrings(in, model.imports);
+        readStrings(in, model.wildcardImports);
+        int attributeCount = in.readInt();
+        for (int i = 0; i < attributeCount; i++) {
+            model.attributes.add(Attribute.read(in, symbols));
+        }
+        int operationCount = in.readInt();
+        for (int i = 0; i < operationCount; i++) {
+            model.operations.add(Operation.read(in, symbols));
+        }
+        readStrings(in, model.extendedTypes);
+        readStrings(in, model.implementedTypes);
+        readStrings(in, model.aggregatedTypes);
+        readTransitions(in, model.triggers);
+        readTransitions(in, model.sendMessages);
+        return model;
+    }
+
+    private static void writeStrings(DataOutput out, List<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s: strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void readStrings(DataInput in, List<String> strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    private static void writeTransitions(DataOutput out, List<Transition> transitions) throws IOException {
+        out.writeInt(transitions.size());
+        for (Transition transition: transitions) {
+            out.writeUTF(transition.getFrom());
+            out.writeUTF(transition.getTo());
+            out.writeUTF(transition.getName());
+        }
+    }
+
+    private static void readTransitions(DataInput in, List<Transition> transitions) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            transitions.add(new Transition(in.readUTF(), in.readUTF(), in.readUTF()));
+        }
+    }
+
+    private static void writeNullable(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String intern(SymbolPool symbols, String symbol) {
+        return symbols == null ? symbol : symbols.intern(symbol);
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * The modifiers StarUML cares about. visibility is null when none is written in the source.
+     */
+    public static class Member {
+        private final String name;
+        private String visibility;
+        private boolean isStatic;
+        private boolean isAbstract;
+
+        public Member(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVisibility() {
+            return visibility;
+        }
+
+        public void setVisibility(String visibility) {
+            this.visibility = visibility;
+        }
+
+        public boolean isStatic() {
+            return isStatic;
+        }
+
+        public void setStatic(boolean isStatic) {
+            this.isStatic = isStatic;
+        }
+
+        public boolean isAbstract() {
+            return isAbstract;
+        }
+
+        public void setAbstract(boolean isAbstract) {
+            this.isAbstract = isAbstract;
+        }
+
+        void writeModifiers(DataOutput out) throws IOException {
+            writeNullable(out, visibility);
+            out.writeBoolean(isStatic);
+            out.writeBoolean(isAbstract);
+        }
+
+        void readModifiers(DataInput in) throws IOException {
+            visibility = readNullable(in);
+            isStatic = in.readBoolean();
+            isAbstract = in.readBoolean();
+        }
+    }
+
+    public static class Attribute extends Member {
+        private final String type;
+
+        public Attribute(String name, String type) {
+            super(name);
+            this.type = type;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(getName());
+            out.writeUTF(type);
+            writeModifiers(out);
+        }
+
+        static Attribute read(DataInput in, SymbolPool symbols) throws IOException {
+            Attribute attribute = new Attribute(intern(symbols, in.readUTF()), intern(symbols, in.readUTF()));
+            attribute.readModifiers(in);
+            return attribute;
+        }
+    }
+
+    public static class Operation extends Member {
+        private final String returnType;
+        private final List<Parameter> parameters = new ArrayList<>();
+
+        public Operation(String name, String returnType) {
+            super(name);
+            this.returnType = returnType;
+        }
+
+        public String getReturnType() {
+            return returnType;
+        }
+
+        public List<Parameter> getParameters() {
+            return parameters;
+        }
+
+        void write(DataOutput out) throws IOException {
+            out.writeUTF(getName());
+            out.writeUTF(returnType);
+            writeModifiers(out);
+            out.writeInt(parameters.size());
+            for (Parameter parameter: parameters) {
+                out.writeUTF(parameter.getName());
+                out.writeUTF(parameter.getType());
+            }
+        }
+
+        static Operation read(DataInput in, SymbolPool symbols) throws IOException {
+            Operation operation = new Operation(intern(symbols, in.readUTF()), intern(symbols, in.readUTF()));
+            operation.readModifiers(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                operation.parameters.add(
+                        new Parameter(intern(symbols, in.readUTF()), intern(symbols, in.readUTF())));
+            }
+            return operation;
+        }
+    }
+
+    public static class Parameter {
+        private final String name;
+        private final String type;
+
+        public Parameter(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getType() {
+            return type;
+        }
+    }
+
+    /**
+     * A @Trigger (or @SendMessage) edge, named after the method that carries the annotation.
+     */
+    public static class Transition {
+        private final String from;
+        private final String to;
+        private final String name;
+
+        public Transition(String from, String to, String name) {
+            this.from = from;
+            this.to = to;
+            this.name = name;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
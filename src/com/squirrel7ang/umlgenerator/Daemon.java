@@ -0,0 +1,192 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the JVM, JavaParser and the models of recently generated projects in memory, so that generating a
+ * project again only costs parsing the files that changed. Requests are single JSON lines:
+ * <pre>
+ * {"roots": ["./src"], "output": "uml.mdj"}
+ * {"command": "shutdown"}
+ * </pre>
+ * Every request gets a single JSON line back, {"ok": true, "changed": ..., "millis": ...} or
+ * {"ok": false, "error": ...}. Without "output" the project is not written to a file: the reply carries
+ * "bytes" instead, and that many bytes of .mdj follow the line.
+ */
+public class Daemon {
+    private static final int MAX_PROJECTS = 8; // the least recently used project beyond that is dropped
+
+    private final ParserConfig config;
+    // from the roots of a request to its parser, in the order they were last used
+    private final LinkedHashMap<List<String>, ProjectParser> projects =
+            new LinkedHashMap<List<String>, ProjectParser>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, ProjectParser> eldest) {
+                    return size() > MAX_PROJECTS;
+                }
+            };
+    private boolean running = true;
+
+    public Daemon(ParserConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Answers requests from in on out until in ends or a shutdown is asked for, e.g. over stdin and stdout.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while (running && (line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            handle(line, out);
+            out.flush();
+        }
+    }
+
+    /**
+     * Accepts clients on port of the loopback interface, one at a time, until a shutdown is asked for.
+     */
+    public void listen(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress())) {
+            System.err.println("listening on " + server.getLocalSocketAddress());
+            while (running) {
+                try (Socket client = server.accept()) {
+                    serve(client.getInputStream(), client.getOutputStream());
+                }
+                catch (IOException | RuntimeException e) {
+                    // the client went away, or its request broke something: the next one is still welcome
+                    System.err.println("client fail: " + describe(e));
+                }
+            }
+        }
+    }
+
+    private void handle(String line, OutputStream out) throws IOException {
+        JSONObject reply = new JSONObject();
+        byte[] content = null;
+        try {
+            JSONObject request = new JSONObject(line);
+            String command = request.optString("command", "generate");
+            if (command.equals("shutdown")) {
+                running = false;
+            }
+            else if (command.equals("generate")) {
+                content = generate(request, reply);
+            }
+            else {
+                throw new IllegalArgumentException("unknown command " + command);
+            }
+            reply.put("ok", true);
+        }
+        catch (RuntimeException | IOException e) {
+            // e.g. a source file the extractor cannot handle: the request fails, the daemon goes on
+            reply = new JSONObject();
+            reply.put("ok", false);
+            reply.put("error", describe(e));
+            content = null;
+        }
+        if (content != null) {
+            reply.put("bytes", content.length);
+        }
+        out.write((reply.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        if (content != null) {
+            out.write(content);
+        }
+    }
+
+    // returns the project if it is not written to a file
+    private byte[] generate(JSONObject request, JSONObject reply) throws IOException {
+        long start = System.nanoTime();
+        JSONArray rootArray = request.optJSONArray("roots");
+        if (rootArray == null || rootArray.length() == 0) {
+            throw new IllegalArgumentException("roots expected");
+        }
+        List<String> roots = new ArrayList<>();
+        for (int i = 0; i < rootArray.length(); i++) {
+            roots.add(Paths.get(rootArray.getString(i)).toAbsolutePath().normalize().toString());
+        }
+
+        try {
+            return generate(request, reply, roots, start);
+        }
+        catch (RuntimeException e) {
+            // whatever the parser holds may be half updated, the next request parses the project from scratch
+            projects.remove(roots);
+            throw e;
+        }
+    }
+
+    private byte[] generate(JSONObject request, JSONObject reply, List<String> roots, long start)
+            throws IOException {
+        ProjectParser parser = projects.get(roots);
+        boolean changed;
+        if (parser == null) {
+            parser = new ProjectParser(config);
+            ModuleScanner modules = new ModuleScanner();
+            for (String root: roots) {
+                for (SourceModule module: modules.scan(Paths.get(root))) {
+                    parser.addModule(module);
+                }
+            }
+            parser.convertToJp();
+            projects.put(roots, parser);
+            changed = true;
+        }
+        else {
+            // a change below a module root means the whole module, whose unchanged files come from memory
+            List<Path> moduleRoots = new ArrayList<>();
+            for (SourceModule module: parser.getModules()) {
+                moduleRoots.add(module.getRoot());
+            }
+            changed = parser.update(moduleRoots);
+        }
+        reply.put("changed", changed);
+
+        byte[] content = null;
+        String output = request.optString("output", null);
+        if (output != null) {
+            try (FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                parser.writeStaruml(channel);
+            }
+            reply.put("output", output);
+        }
+        else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            parser.writeStaruml(Channels.newChannel(bytes));
+            content = bytes.toByteArray();
+        }
+        reply.put("millis", (System.nanoTime() - start) / 1_000_000.0);
+        return content;
+    }
+
+    // "parsing failed: java.lang.ClassCastException: ..." rather than only the outermost message
+    private static String describe(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.toString();
+        return e.getCause() != null ? message + ": " + e.getCause() : message;
+    }
+}
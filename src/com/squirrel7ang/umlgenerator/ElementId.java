@@ -0,0 +1,99 @@
+package com.squirrel7ang.umlgenerator;
+
+/**
+ * A deterministic id derived from the path of an element, e.g. {@code app.Book#borrow(String,int)/user}.
+ * The path is never built as a string: every child id is a 64-bit FNV-1a hash of its parent's hash and
+ * its own path segment, so computing one costs a single short string and is safe on any thread.
+ * A segment is hashed after its length, so that a separator inside a segment, as in the transition
+ * {@code a>b} to {@code c}, cannot make it hash like another split of the same text.
+ */
+public final class ElementId {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    static final int LENGTH = 11; // 11 base64 digits cover 64 bits
+
+    private final long hash;
+    private final String value;
+
+    private ElementId(long hash) {
+        this.hash = hash;
+        char[] chars = new char[LENGTH];
+        long h = hash;
+        for (int i = LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (h & 0x3f)];
+            h >>>= 6;
+        }
+        this.value = new String(chars);
+    }
+
+    public static ElementId of(String path) {
+        return new ElementId(mix(FNV_OFFSET, '/', path));
+    }
+
+    public static ElementId of(long hash) {
+        return new ElementId(hash);
+    }
+
+    /**
+     * The id of the element at this path + separator + segment.
+     */
+    public ElementId child(char separator, String segment) {
+        return new ElementId(mix(hash, separator, segment));
+    }
+
+    /**
+     * Distinguishes elements whose paths are otherwise identical, by their order of appearance.
+     */
+    public ElementId child(char separator, int ordinal) {
+        return new ElementId(mixInt(mixChar(hash, separator), ordinal));
+    }
+
+    public long hash() {
+        return hash;
+    }
+
+    /**
+     * The digit at position (0 being the first of {@link #LENGTH}) of the id that hash prints as, for
+     * writers that print an id without creating it.
+     */
+    static char digit(long hash, int position) {
+        return ALPHABET[(int) (hash >>> (6 * (LENGTH - 1 - position))) & 0x3f];
+    }
+
+    public static long mix(long hash, char separator, CharSequence segment) {
+        long h = mixInt(mixChar(hash, separator), segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            h = mixChar(h, segment.charAt(i));
+        }
+        return h;
+    }
+
+    private static long mixChar(long hash, char c) {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    private static long mixInt(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof ElementId && ((ElementId) object).hash == hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
@@ -0,0 +1,89 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The extraction result of one source file, together with what is needed to tell whether it is still fresh.
+ */
+public class FileModel {
+    private final String path;
+    private final long size;
+    private final long lastModified;
+    private final byte[] hash;
+    private final List<ClassModel> classes = new ArrayList<>();
+
+    public FileModel(String path, long size, long lastModified, byte[] hash) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public List<ClassModel> getClasses() {
+        return classes;
+    }
+
+    public boolean hasSameStat(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    public boolean hasSameContent(byte[] hash) {
+        return Arrays.equals(this.hash, hash);
+    }
+
+    /**
+     * The same extraction result for a file that was touched but not changed.
+     */
+    public FileModel withStat(long size, long lastModified) {
+        FileModel model = new FileModel(path, size, lastModified, hash);
+        model.classes.addAll(classes);
+        return model;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(size);
+        out.writeLong(lastModified);
+        out.writeShort(hash.length);
+        out.write(hash);
+        out.writeInt(classes.size());
+        for (ClassModel model: classes) {
+            model.write(out);
+        }
+    }
+
+    public static FileModel read(DataInput in, SymbolPool symbols) throws IOException {
+        String path = in.readUTF();
+        long size = in.readLong();
+        long lastModified = in.readLong();
+        byte[] hash = new byte[in.readUnsignedShort()];
+        in.readFully(hash);
+        FileModel model = new FileModel(path, size, lastModified, hash);
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            model.classes.add(ClassModel.read(in, symbols));
+        }
+        return model;
+    }
+}
@@ -0,0 +1,155 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Combines fragments written with {@link ProjectParser#outputShards} into one .mdj project, without any source.
+ * Packages go into the model, a state machine on its own (exported from StarUML) into the project. Ids are
+ * global, so references between fragments need no change; an element whose id is already taken by an earlier
+ * fragment gets a new one, and the references inside its own fragment are rewritten to match.
+ */
+public class FragmentMerger {
+    private final HashSet<String> ids = new HashSet<>(); // of every element written so far
+    private final HashSet<String> refs = new HashSet<>(); // every id referred to
+    private int renamed = 0;
+
+    /**
+     * Expands the directories among paths to the fragments they hold, in name order.
+     */
+    public static List<Path> fragments(List<Path> paths) throws IOException {
+        List<Path> fragments = new ArrayList<>();
+        for (Path path: paths) {
+            if (!Files.isDirectory(path)) {
+                fragments.add(path);
+                continue;
+            }
+            List<Path> inside = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.mfj")) {
+                for (Path file: stream) {
+                    inside.add(file);
+                }
+            }
+            Collections.sort(inside);
+            fragments.addAll(inside);
+        }
+        return fragments;
+    }
+
+    public void merge(List<Path> fragments, Path output, boolean pretty) throws IOException {
+        List<JSONObject> projectElements = new ArrayList<>(); // small, written once the model is closed
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             MdjWriter out = new MdjWriter(channel, pretty)) {
+            ProjectParser.beginUmlProject(out);
+            ProjectParser.beginUmlModel(out);
+            ids.add(ProjectParser.MODEL_ID.toString());
+            for (Path fragment: fragments) {
+                JSONObject element = read(fragment);
+                if ("UMLStateMachine".equals(element.optString("_type"))) {
+                    element.put("_parent", ref(ProjectParser.PROJECT_ID.toString()));
+                    projectElements.add(element);
+                }
+                else {
+                    element.put("_parent", ref(ProjectParser.MODEL_ID.toString()));
+                    out.value(element);
+                }
+            }
+            out.endArray();
+            out.endObject();
+
+            for (JSONObject element: projectElements) {
+                out.value(element);
+            }
+            out.endArray();
+            out.endObject();
+        }
+        refs.removeAll(ids);
+        refs.remove(ProjectParser.PROJECT_ID.toString());
+        if (renamed > 0) {
+            System.err.println(renamed + " elements were found in more than one fragment and got a new id");
+        }
+        if (!refs.isEmpty()) {
+            System.err.println(refs.size() + " references point to elements of fragments that were not merged");
+        }
+    }
+
+    // reads a fragment and gives a new id to whatever an earlier fragment already used
+    private JSONObject read(Path fragment) throws IOException {
+        JSONObject element = new JSONObject(new String(Files.readAllBytes(fragment), StandardCharsets.UTF_8));
+        HashMap<String, String> renames = new HashMap<>();
+        collectIds(element, renames);
+        if (!renames.isEmpty()) {
+            rewrite(element, renames);
+        }
+        return element;
+    }
+
+    private void collectIds(Object value, HashMap<String, String> renames) {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            Object id = json.opt("_id");
+            if (id instanceof String && !ids.add((String) id)) {
+                ElementId original = ElementId.of((String) id);
+                String candidate = (String) id;
+                for (int i = 1; ids.contains(candidate); i++) {
+                    candidate = original.child('~', i).toString();
+                }
+                ids.add(candidate);
+                renames.put((String) id, candidate);
+                renamed++;
+            }
+            Object target = json.opt("$ref");
+            if (target instanceof String) {
+                refs.add((String) target);
+            }
+            for (String key: json.keySet()) {
+                collectIds(json.opt(key), renames);
+            }
+        }
+        else if (value instanceof JSONArray) {
+            for (Object item: (JSONArray) value) {
+                collectIds(item, renames);
+            }
+        }
+    }
+
+    private static void rewrite(Object value, HashMap<String, String> renames) {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            for (String key: new ArrayList<>(json.keySet())) {
+                Object item = json.opt(key);
+                if ((key.equals("_id") || key.equals("$ref")) && renames.containsKey(item)) {
+                    json.put(key, renames.get(item));
+                }
+                else {
+                    rewrite(item, renames);
+                }
+            }
+        }
+        else if (value instanceof JSONArray) {
+            for (Object item: (JSONArray) value) {
+                rewrite(item, renames);
+            }
+        }
+    }
+
+    private static JSONObject ref(String id) {
+        JSONObject json = new JSONObject();
+        json.put("$ref", id);
+        return json;
+    }
+}
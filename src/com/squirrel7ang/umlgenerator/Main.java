@@ -1,34 +1,360 @@
 package com.squirrel7ang.umlgenerator;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Main {
     public static void main(String[] args) {
-        File dir = null;
-        String outputPath = "uml.mdj";
-        if (args.length == 0) {
-            dir = new File("./");
+        if (args.length > 0 && args[0].equals("merge")) {
+            merge(args);
+            return;
         }
-        else if (args.length == 1) {
-            dir = new File(args[0]);
+        ArrayList<String> roots = new ArrayList<>(); // source directories or pom.xml files
+        String outputPath = null; // uml.mdj, or the uml directory with --shard-by
+        boolean stats = false;
+        boolean watch = false;
+        boolean daemon = false;
+        int port = -1; // stdin and stdout unless given
+        String loadModelPath = null;
+        String saveModelPath = null;
+        String statsPath = null;
+        String manifestPath = null;
+        String shardBy = null; // null for a single .mdj
+        ParserConfig config = new ParserConfig();
+        ArrayList<String> positionals = new ArrayList<>();
+        // the defaults are replaced, not extended, as soon as one of these is given
+        ArrayList<String> includes = new ArrayList<>();
+        ArrayList<String> excludedPackages = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j") || args[i].equals("--threads")) {
+                String value = argumentOf(args, i++, "a thread count");
+                try {
+                    config.setThreads(Integer.parseInt(value));
+                }
+                catch (IllegalArgumentException e) {
+                    usage("invalid thread count " + value);
+                }
+            }
+            else if (args[i].equals("--pretty")) {
+                config.setPretty(true);
+            }
+            else if (args[i].equals("--cache")) {
+                config.setCacheFile(Paths.get(argumentOf(args, i++, "a cache file")));
+            }
+            else if (args[i].equals("--include")) {
+                includes.add(argumentOf(args, i++, "a glob"));
+            }
+            else if (args[i].equals("--exclude")) {
+                config.getExcludes().add(argumentOf(args, i++, "a glob"));
+            }
+            else if (args[i].equals("--exclude-package")) {
+                excludedPackages.add(argumentOf(args, i++, "a package name"));
+            }
+            else if (args[i].equals("--follow-links")) {
+                config.setFollowLinks(true);
+            }
+            else if (args[i].equals("--full-parse")) {
+                config.setFullParse(true);
+            }
+            else if (args[i].equals("--max-memory")) {
+                String value = argumentOf(args, i++, "a size");
+                try {
+                    config.setMemoryBudget(parseSize(value));
+                }
+                catch (IllegalArgumentException e) {
+                    usage("invalid size " + value + ", expected e.g. 512m or 2g");
+                }
+            }
+            else if (args[i].equals("--save-model")) {
+                saveModelPath = argumentOf(args, i++, "a model file");
+            }
+            else if (args[i].equals("--load-model")) {
+                loadModelPath = argumentOf(args, i++, "a model file");
+            }
+            else if (args[i].equals("--root")) {
+                roots.add(argumentOf(args, i++, "a source directory or a pom.xml"));
+            }
+            else if (args[i].equals("--watch")) {
+                watch = true;
+            }
+            else if (args[i].equals("--shard-by")) {
+                shardBy = argumentOf(args, i++, "module or package");
+                if (!shardBy.equals("module") && !shardBy.equals("package")) {
+                    usage("invalid shard kind " + shardBy + ", expected module or package");
+                }
+            }
+            else if (args[i].equals("--batch")) {
+                manifestPath = argumentOf(args, i++, "a manifest");
+            }
+            else if (args[i].equals("--daemon")) {
+                daemon = true;
+            }
+            else if (args[i].equals("--port")) {
+                String value = argumentOf(args, i++, "a port");
+                try {
+                    port = Integer.parseInt(value);
+                }
+                catch (NumberFormatException e) {
+                    usage("invalid port " + value);
+                }
+            }
+            else if (args[i].equals("--stats")) {
+                stats = true;
+            }
+            else if (args[i].equals("--stats-json")) {
+                statsPath = argumentOf(args, i++, "a metrics file");
+            }
+            else {
+                positionals.add(args[i]);
+            }
+        }
+        if (!includes.isEmpty()) {
+            config.setIncludes(includes);
+        }
+        if (!excludedPackages.isEmpty()) {
+            config.setExcludedPackages(excludedPackages);
+        }
+
+        if (config.getMemoryBudget() > 0 && (watch || daemon || config.getCacheFile() != null)) {
+            // they keep the model of every file to find what changed, which is what --max-memory gives up
+            usage("--max-memory cannot be used with --watch, --daemon or --cache");
+        }
+        if (port >= 0 && !daemon) {
+            usage("--port is only used with --daemon");
+        }
+        if (manifestPath != null) {
+            if (daemon || !positionals.isEmpty() || !roots.isEmpty() || loadModelPath != null || watch
+                    || shardBy != null || config.getCacheFile() != null) {
+                usage("--batch takes its sources from the manifest, only parser options can be given");
+            }
+            try {
+                Batch batch = new Batch(config);
+                if (!batch.run(Batch.readManifest(Paths.get(manifestPath)))) {
+                    System.exit(1);
+                }
+            }
+            catch (IOException e) {
+                System.err.println("manifest read fail: " + e.getMessage());
+                System.exit(-1);
+            }
+            return;
+        }
+        if (daemon) {
+            // the projects come with the requests, and their models stay in memory instead of a cache file
+            if (!positionals.isEmpty() || !roots.isEmpty() || loadModelPath != null || watch || shardBy != null
+                    || config.getCacheFile() != null) {
+                usage("--daemon takes its sources from requests, only parser options can be given");
+            }
+            try {
+                if (port >= 0) {
+                    new Daemon(config).listen(port);
+                }
+                else {
+                    new Daemon(config).serve(System.in, System.out);
+                }
+            }
+            catch (IOException e) {
+                System.err.println("daemon fail: " + e.getMessage());
+                System.exit(-1);
+            }
+            return;
+        }
+        if (loadModelPath != null && !roots.isEmpty()) {
+            usage("--load-model and --root cannot be used together");
+        }
+        if (loadModelPath != null && watch) {
+            usage("--watch needs source directories, not --load-model");
+        }
+        if (loadModelPath != null || !roots.isEmpty()) {
+            // the sources are given already, only the output may follow
+            if (positionals.size() > 1) {
+                usage("only the output path is expected with --root or --load-model, while "
+                        + positionals.size() + " arguments are detected");
+            }
+            if (positionals.size() == 1) {
+                outputPath = positionals.get(0);
+            }
+        }
+        else if (positionals.size() == 0) {
+            roots.add("./");
+        }
+        else if (positionals.size() == 1) {
+            roots.add(positionals.get(0));
+        }
+        else if (positionals.size() == 2) {
+            roots.add(positionals.get(0));
+            outputPath = positionals.get(1);
+        }
+        else {
+            usage("no more than two arguments is expected, while "
+                    + positionals.size() + " arguments are detected");
+        }
+        if (shardBy != null && watch) {
+            usage("--watch writes a single .mdj and cannot be used with --shard-by");
         }
-        else if (args.length == 2) {
-            dir = new File(args[0]);
-            outputPath = args[1];
-            if (outputPath.endsWith("/") || outputPath.endsWith("\\")) {
-                outputPath += "uml.mdj";
+        if (outputPath == null) {
+            outputPath = shardBy == null ? "uml.mdj" : "uml";
+        }
+        else if (shardBy == null && (outputPath.endsWith("/") || outputPath.endsWith("\\"))) {
+            outputPath += "uml.mdj";
+        }
+
+        ProjectParser pp;
+        if (loadModelPath != null) {
+            try {
+                pp = new ProjectParser(ModelFile.read(Paths.get(loadModelPath)), config);
             }
+            catch (IOException e) {
+                System.err.println("model load fail: " + e.getMessage());
+                System.exit(-1);
+                return;
+            }
+        }
+        else {
+            pp = new ProjectParser(config);
+            ModuleScanner modules = new ModuleScanner();
+            for (String root: roots) {
+                try {
+                    for (SourceModule module: modules.scan(Paths.get(root))) {
+                        pp.addModule(module);
+                    }
+                }
+                catch (IOException e) {
+                    System.err.println("cannot read " + root + ": " + e.getMessage());
+                    System.exit(-1);
+                }
+            }
+            pp.convertToJp();
+        }
+        if (saveModelPath != null) {
+            try {
+                ModelFile.write(Paths.get(saveModelPath), pp.getClasses());
+            }
+            catch (IOException e) {
+                System.err.println("file create fail: " + e.getMessage());
+            }
+        }
+
+        if (shardBy != null) {
+            pp.outputShards(outputPath, shardBy.equals("package"));
         }
         else {
-            System.err.println("no more than two arguments is expected, while "
-                    + args.length + " arguments are detected");
-            System.err.println("Example1: java -jar umlgenerator.jar");
-            System.err.println("Example2: java -jar umlgenerator.jar ./src");
-            System.err.println("Example3: java -jar umlgenerator.jar ./src ./uml.mdj");
+            pp.outputStaruml(outputPath);
+        }
+
+        if (stats) {
+            System.out.print(pp.getStats().report());
+        }
+        if (statsPath != null) {
+            try {
+                Files.write(Paths.get(statsPath), pp.getStats().toJson().toString(2).getBytes(StandardCharsets.UTF_8));
+            }
+            catch (IOException e) {
+                System.err.println("file create fail: " + e.getMessage());
+            }
+        }
+
+        if (watch) {
+            try {
+                List<Path> watched = new ArrayList<>();
+                for (SourceModule module: pp.getModules()) {
+                    watched.add(module.getRoot());
+                }
+                new Watcher(pp, watched, Paths.get(outputPath)).run();
+            }
+            catch (IOException e) {
+                System.err.println("watch fail: " + e.getMessage());
+                System.exit(-1);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // merge OUTPUT FRAGMENT...
+    private static void merge(String[] args) {
+        boolean pretty = false;
+        ArrayList<String> positionals = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--pretty")) {
+                pretty = true;
+            }
+            else {
+                positionals.add(args[i]);
+            }
+        }
+        if (positionals.size() < 2) {
+            usage("merge expects an output file and at least one fragment or directory of fragments");
+        }
+        List<Path> paths = new ArrayList<>();
+        for (String path: positionals.subList(1, positionals.size())) {
+            paths.add(Paths.get(path));
+        }
+        try {
+            new FragmentMerger().merge(FragmentMerger.fragments(paths), Paths.get(positionals.get(0)), pretty);
+        }
+        catch (IOException e) {
+            System.err.println("merge fail: " + e.getMessage());
+            System.exit(-1);
+        }
+        catch (RuntimeException e) {
+            // org.json reports a broken fragment this way
+            System.err.println("merge fail: " + e.getMessage());
             System.exit(-1);
         }
-        ProjectParser pp = new ProjectParser(dir);
+    }
+
+    // a number of bytes, or of kilobytes, megabytes or gigabytes with a k, m or g after it
+    private static long parseSize(String value) {
+        String number = value.toLowerCase();
+        long unit = 1;
+        if (number.endsWith("k")) {
+            unit = 1L << 10;
+        }
+        else if (number.endsWith("m")) {
+            unit = 1L << 20;
+        }
+        else if (number.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1) {
+            number = number.substring(0, number.length() - 1);
+        }
+        long size = Long.parseLong(number) * unit;
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive, got " + value);
+        }
+        return size;
+    }
+
+    private static String argumentOf(String[] args, int i, String what) {
+        if (i + 1 >= args.length) {
+            usage(args[i] + " expects " + what);
+        }
+        return args[i + 1];
+    }
 
-        pp.outputStaruml(outputPath);
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Example1: java -jar umlgenerator.jar");
+        System.err.println("Example2: java -jar umlgenerator.jar ./src");
+        System.err.println("Example3: java -jar umlgenerator.jar ./src ./uml.mdj");
+        System.err.println("Example4: java -jar umlgenerator.jar -j 8 ./src ./uml.mdj");
+        System.err.println("Example5: java -jar umlgenerator.jar --exclude '**/generated/**' ./src");
+        System.err.println("Example6: java -jar umlgenerator.jar --watch ./src ./uml.mdj");
+        System.err.println("Example7: java -jar umlgenerator.jar --load-model model.umlb ./uml.mdj");
+        System.err.println("Example8: java -jar umlgenerator.jar --root ./pom.xml --root ../other/src ./uml.mdj");
+        System.err.println("Example9: java -jar umlgenerator.jar --shard-by package ./src ./uml-shards");
+        System.err.println("Example10: java -jar umlgenerator.jar merge ./uml.mdj ./uml-shards");
+        System.err.println("Example11: java -jar umlgenerator.jar --daemon --port 7777");
+        System.err.println("Example12: java -jar umlgenerator.jar -j 8 --batch ./projects.txt");
+        System.err.println("Example13: java -Xmx256m -jar umlgenerator.jar --max-memory 128m ./src ./uml.mdj");
+        System.exit(-1);
     }
 }
@@ -0,0 +1,334 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Streams a .mdj document straight into a channel as UTF-8, so that no element
+ * has to wait in memory for the rest of the model to be generated.
+ *
+ * <p>Without a channel it writes into a buffer that grows as needed instead, which {@link #reset} empties for
+ * the next element: a thread can write an element there, for {@link #raw} to copy it into the document later.
+ */
+public class MdjWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final WritableByteChannel channel; // null to keep everything in buffer
+    private ByteBuffer buffer;
+    private final boolean pretty;
+    private int indent = 0; // levels every new line is indented by, besides depth
+    // hasEntries[depth] tells whether the container opened at that depth already holds something
+    private boolean[] hasEntries = new boolean[32];
+    private int depth = 0;
+    private boolean afterName = false;
+    private long bytesWritten = 0;
+    private long writeNanos = 0; // time spent inside the channel
+
+    public MdjWriter(WritableByteChannel channel, boolean pretty) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.pretty = pretty;
+    }
+
+    /**
+     * A writer that keeps what is written in memory, for {@link #raw}.
+     */
+    public MdjWriter(boolean pretty) {
+        this.channel = null;
+        this.buffer = ByteBuffer.allocate(1 << 10);
+        this.pretty = pretty;
+    }
+
+    /**
+     * Empties a writer without a channel, to write a value that will go depth containers deep into a document.
+     */
+    public void reset(int depth) {
+        buffer.clear();
+        this.depth = 0;
+        this.indent = depth;
+        afterName = false;
+    }
+
+    /**
+     * How many containers are open.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Copies the value written into element, which was reset with the depth of this writer.
+     */
+    public MdjWriter raw(MdjWriter element) throws IOException {
+        beforeValue();
+        ByteBuffer bytes = element.buffer.duplicate();
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                makeRoom();
+            }
+            int length = Math.min(bytes.remaining(), buffer.remaining());
+            int limit = bytes.limit();
+            bytes.limit(bytes.position() + length);
+            buffer.put(bytes);
+            bytes.limit(limit);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an id the way {@link ElementId#toString} prints it, from its hash alone.
+     */
+    public MdjWriter id(long hash) throws IOException {
+        beforeValue();
+        writeByte('"');
+        for (int i = 0; i < ElementId.LENGTH; i++) {
+            writeByte(ElementId.digit(hash, i));
+        }
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes a reference to an element, {"$ref": id}.
+     */
+    public MdjWriter ref(ElementId id) throws IOException {
+        beginObject();
+        name("$ref").value(id.toString());
+        return endObject();
+    }
+
+    /**
+     * Writes a reference to the element whose id hash prints as.
+     */
+    public MdjWriter ref(long hash) throws IOException {
+        beginObject();
+        name("$ref").id(hash);
+        return endObject();
+    }
+
+    public MdjWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public MdjWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public MdjWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public MdjWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public MdjWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        writeByte(':');
+        if (pretty) {
+            writeByte(' ');
+        }
+        afterName = true;
+        return this;
+    }
+
+    public MdjWriter value(String value) throws IOException {
+        beforeValue();
+        writeString(value);
+        return this;
+    }
+
+    public MdjWriter value(boolean value) throws IOException {
+        beforeValue();
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes an already built org.json subtree.
+     */
+    public MdjWriter value(Object value) throws IOException {
+        if (value instanceof JSONObject) {
+            JSONObject json = (JSONObject) value;
+            beginObject();
+            for (String key: json.keySet()) {
+                name(key);
+                value(json.get(key));
+            }
+            endObject();
+        }
+        else if (value instanceof JSONArray) {
+            beginArray();
+            for (Object obj: (JSONArray) value) {
+                value(obj);
+            }
+            endArray();
+        }
+        else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        }
+        else if (value instanceof Number) {
+            beforeValue();
+            writeAscii(value.toString());
+        }
+        else if (value == null || JSONObject.NULL.equals(value)) {
+            beforeValue();
+            writeAscii("null");
+        }
+        else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    public void flush() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private MdjWriter open(char bracket) throws IOException {
+        beforeValue();
+        writeByte(bracket);
+        depth++;
+        if (depth == hasEntries.length) {
+            hasEntries = Arrays.copyOf(hasEntries, depth * 2);
+        }
+        hasEntries[depth] = false;
+        return this;
+    }
+
+    private MdjWriter close(char bracket) throws IOException {
+        boolean empty = !hasEntries[depth];
+        depth--;
+        if (!empty) {
+            newLine();
+        }
+        writeByte(bracket);
+        return this;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasEntries[depth]) {
+                writeByte(',');
+            }
+            hasEntries[depth] = true;
+            newLine();
+        }
+    }
+
+    private void newLine() throws IOException {
+        if (pretty) {
+            writeByte('\n');
+            for (int i = 0; i < depth + indent; i++) {
+                writeByte(' ');
+                writeByte(' ');
+            }
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                writeByte('\\');
+                writeByte(c);
+            }
+            else if (c == '\n') {
+                writeAscii("\\n");
+            }
+            else if (c == '\r') {
+                writeAscii("\\r");
+            }
+            else if (c == '\t') {
+                writeAscii("\\t");
+            }
+            else if (c < 0x20) {
+                writeAscii("\\u00");
+                writeByte(HEX[c >> 4]);
+                writeByte(HEX[c & 0xf]);
+            }
+            else if (c < 0x80) {
+                writeByte(c);
+            }
+            else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                writeByte(0xf0 | (cp >> 18));
+                writeByte(0x80 | ((cp >> 12) & 0x3f));
+                writeByte(0x80 | ((cp >> 6) & 0x3f));
+                writeByte(0x80 | (cp & 0x3f));
+            }
+            else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            makeRoom();
+        }
+        buffer.put((byte) b);
+    }
+
+    private void makeRoom() throws IOException {
+        if (channel != null) {
+            flush();
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+}
@@ -0,0 +1,205 @@
+package com.squirrel7ang.umlgenerator;
+
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.ArrayInitializerExpr;
+import com.github.javaparser.ast.expr.MemberValuePair;
+import com.github.javaparser.ast.expr.NormalAnnotationExpr;
+import com.github.javaparser.ast.expr.StringLiteralExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.PrimitiveType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.type.VoidType;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reduces a parsed class or interface to a {@link ClassModel}.
+ */
+public class ModelExtractor {
+    private final SymbolPool symbols;
+    private final TypeAnalyzer types;
+
+    public ModelExtractor() {
+        this(new SymbolPool());
+    }
+
+    /**
+     * An extractor sharing names through symbols, which the caller clears once the models are extracted.
+     */
+    public ModelExtractor(SymbolPool symbols) {
+        this.symbols = symbols;
+        this.types = new TypeAnalyzer(symbols);
+    }
+
+    /**
+     * Forgets what was remembered about the types of the models extracted so far, along with the names
+     * it holds; called when the pool of symbols is cleared.
+     */
+    public void clear() {
+        types.clear();
+    }
+
+    public ClassModel extract(ClassOrInterfaceDeclaration ci, String packageName,
+                              NodeList<ImportDeclaration> imports) {
+        ClassModel model = new ClassModel(ci.getNameAsString(), packageName, ci.isInterface());
+        for (ImportDeclaration imp: imports) {
+            if (imp.isStatic()) {
+                continue;
+            }
+            if (imp.isAsterisk()) {
+                model.getWildcardImports().add(imp.getNameAsString());
+            }
+            else {
+                model.getImports().add(imp.getNameAsString());
+            }
+        }
+
+        // operations and attributes
+        Set<String> aggregated = new HashSet<>(); // every aggregation is stored once, however many fields hold it
+        for (BodyDeclaration<?> member: ci.getMembers()) {
+            if (member instanceof FieldDeclaration) {
+                model.getAttributes().add(getAttribute((FieldDeclaration) member, model, aggregated));
+            }
+            else if (member instanceof MethodDeclaration) {
+                model.getOperations().add(getOperation((MethodDeclaration) member, model));
+            }
+        }
+
+        // store generalization and realization
+        for (ClassOrInterfaceType node: ci.getImplementedTypes()) {
+            model.getImplementedTypes().add(node.getNameWithScope());
+        }
+        for (ClassOrInterfaceType  node: ci.getExtendedTypes()) {
+            model.getExtendedTypes().add(node.getNameWithScope());
+        }
+
+        return model;
+    }
+
+    private ClassModel.Attribute getAttribute(FieldDeclaration dec, ClassModel model, Set<String> aggregated) {
+        Type type = dec.getVariable(0).getType();
+        ClassModel.Attribute attribute = new ClassModel.Attribute(
+                symbols.intern(dec.getVariable(0).getNameAsString()), typeName(type));
+        setModifier(attribute, dec.getModifiers());
+
+        // store aggregations
+        for (String name: types.referencedTypes(type, attribute.getType())) {
+            if (aggregated.add(name)) {
+                model.getAggregatedTypes().add(name);
+            }
+        }
+        return attribute;
+    }
+
+    private ClassModel.Operation getOperation(MethodDeclaration dec, ClassModel model) {
+        ClassModel.Operation operation = new ClassModel.Operation(
+                symbols.intern(dec.getNameAsString()), typeName(dec.getType()));
+        for (Parameter para: dec.getParameters()) {
+            operation.getParameters().add(
+                    new ClassModel.Parameter(symbols.intern(para.getNameAsString()), typeName(para.getType())));
+        }
+
+        // set modifier of this operation
+        setModifier(operation, dec.getModifiers());
+
+        for (AnnotationExpr anno: dec.getAnnotations()) {
+            // get Trigger annotation
+            if (anno.getNameAsString().equals("Trigger")) {
+                setTriggerAnnotation(model.getTriggers(), dec.getNameAsString(), (NormalAnnotationExpr) anno);
+            }
+            else if (anno.getNameAsString().equals("Triggers")) {
+                setTriggersAnnotation(model.getTriggers(), dec.getNameAsString(), (NormalAnnotationExpr) anno);
+            }
+            // get sendMessage annotation
+            else if (anno.getNameAsString().equals("SendMessage")) {
+                setTriggerAnnotation(model.getSendMessages(), dec.getNameAsString(), (NormalAnnotationExpr) anno);
+            }
+            else if (anno.getNameAsString().equals("SendMessages")) {
+                setTriggersAnnotation(model.getTriggers(), dec.getNameAsString(), (NormalAnnotationExpr) anno);
+            }
+        }
+        return operation;
+    }
+
+    // @SendMessage shares the from/to layout of @Trigger, so both are read here
+    private void setTriggerAnnotation(List<ClassModel.Transition> transitions, String methodName,
+                                      NormalAnnotationExpr anno) {
+        NodeList<MemberValuePair> pairs = anno.getPairs();
+        String from = ((StringLiteralExpr) pairs.get(0).getValue()).getValue();
+        if (pairs.get(1).getValue() instanceof StringLiteralExpr) {
+            String to = ((StringLiteralExpr) pairs.get(1).getValue()).getValue();
+            transitions.add(new ClassModel.Transition(from, to, methodName + "()"));
+        } else if (pairs.get(1).getValue() instanceof ArrayInitializerExpr) {
+            for (Node _node : ((ArrayInitializerExpr) pairs.get(1).getValue()).getValues()) {
+                String to = ((StringLiteralExpr) _node).getValue();
+                transitions.add(new ClassModel.Transition(from, to, methodName + "()"));
+            }
+        }
+    }
+
+    private void setTriggersAnnotation(List<ClassModel.Transition> transitions, String methodName,
+                                       NormalAnnotationExpr anno) {
+        NodeList<MemberValuePair> pairs = anno.getPairs();
+        for (Node node: ((ArrayInitializerExpr) pairs.get(0).getValue()).getValues()) {
+            setTriggerAnnotation(transitions, methodName, (NormalAnnotationExpr) node);
+        }
+    }
+
+    /**
+     * The type as written in the source. The common simple cases (primitives, void, a plain class name)
+     * reuse the strings already in the AST instead of printing the type again.
+     */
+    private String typeName(Type type) {
+        if (!type.getAnnotations().isEmpty()) {
+            return symbols.intern(type.toString());
+        }
+        if (type instanceof PrimitiveType) {
+            return ((PrimitiveType) type).getType().asString();
+        }
+        if (type instanceof VoidType) {
+            return "void";
+        }
+        if (type instanceof ClassOrInterfaceType) {
+            ClassOrInterfaceType cls = (ClassOrInterfaceType) type;
+            if (!cls.getScope().isPresent() && !cls.getTypeArguments().isPresent()) {
+                return symbols.intern(cls.getName().getIdentifier());
+            }
+        }
+        return symbols.intern(type.toString());
+    }
+
+    private void setModifier(ClassModel.Member member, NodeList<Modifier> modifiers) {
+        for (Modifier modifier: modifiers) {
+            switch (modifier.getKeyword()) {
+                case PRIVATE:
+                    member.setVisibility("private");
+                    break;
+                case PROTECTED:
+                    member.setVisibility("protected");
+                    break;
+                case PUBLIC:
+                    member.setVisibility("public");
+                    break;
+                case STATIC:
+                    member.setStatic(true);
+                    break;
+                case ABSTRACT:
+                    member.setAbstract(true);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The extracted model of a whole project in a compact binary file, so that the .mdj can be written again
+ * (with other options, or merged with other models) without reading a single source file.
+ *
+ * <p>Every string is stored once in a string table at the end of the file and referred to by index
+ * (-1 for null). Everything else is a fixed-width record of big-endian ints, so a record is found by
+ * arithmetic alone once the file is mapped:
+ * <pre>
+ * header      MAGIC VERSION classes lists attributes operations parameters transitions strings
+ * class       name package module flags imports wildcardImports attributes operations
+ *             extendedTypes implementedTypes aggregatedTypes triggers sendMessages
+ *             (every plural is a pair: index of the first record in its section, count)
+ * list        string
+ * attribute   name type visibility flags
+ * operation   name returnType visibility flags firstParameter parameterCount
+ * parameter   name type
+ * transition  from to name
+ * strings     offset of every string in the bytes below, then the end offset, then the UTF-8 bytes
+ * </pre>
+ */
+public class ModelFile {
+    private static final int MAGIC = 0x554d4c42; // "UMLB"
+    private static final int VERSION = 2;
+    private static final int HEADER_INTS = 9;
+    private static final int CLASS_INTS = 22;
+    private static final int ATTRIBUTE_INTS = 4;
+    private static final int OPERATION_INTS = 6;
+    private static final int PARAMETER_INTS = 2;
+    private static final int TRANSITION_INTS = 3;
+    private static final int INTERFACE = 1;
+    private static final int STATIC = 1;
+    private static final int ABSTRACT = 2;
+
+    private final HashMap<String, Integer> stringIndexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Section classes = new Section();
+    private final Section lists = new Section();
+    private final Section attributes = new Section();
+    private final Section operations = new Section();
+    private final Section parameters = new Section();
+    private final Section transitions = new Section();
+
+    private ModelFile() {
+    }
+
+    /**
+     * Writes the models to file, replacing it only once it is complete.
+     */
+    public static void write(Path file, List<ClassModel> models) throws IOException {
+        ModelFile model = new ModelFile();
+        for (ClassModel cls: models) {
+            model.add(cls);
+        }
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            model.writeTo(out);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void add(ClassModel cls) throws IOException {
+        classes.count++;
+        classes.writeInt(string(cls.getName()));
+        classes.writeInt(string(cls.getPackageName()));
+        classes.writeInt(string(cls.getModule()));
+        classes.writeInt(cls.isInterface() ? INTERFACE : 0);
+        addStrings(cls.getImports());
+        addStrings(cls.getWildcardImports());
+
+        classes.writeInt(attributes.count);
+        classes.writeInt(cls.getAttributes().size());
+        for (ClassModel.Attribute attribute: cls.getAttributes()) {
+            attributes.count++;
+            attributes.writeInt(string(attribute.getName()));
+            attributes.writeInt(string(attribute.getType()));
+            attributes.writeInt(string(attribute.getVisibility()));
+            attributes.writeInt(flags(attribute));
+        }
+
+        classes.writeInt(operations.count);
+        classes.writeInt(cls.getOperations().size());
+        for (ClassModel.Operation operation: cls.getOperations()) {
+            operations.count++;
+            operations.writeInt(string(operation.getName()));
+            operations.writeInt(string(operation.getReturnType()));
+            operations.writeInt(string(operation.getVisibility()));
+            operations.writeInt(flags(operation));
+            operations.writeInt(parameters.count);
+            operations.writeInt(operation.getParameters().size());
+            for (ClassModel.Parameter parameter: operation.getParameters()) {
+                parameters.count++;
+                parameters.writeInt(string(parameter.getName()));
+                parameters.writeInt(string(parameter.getType()));
+            }
+        }
+
+        addStrings(cls.getExtendedTypes());
+        addStrings(cls.getImplementedTypes());
+        addStrings(cls.getAggregatedTypes());
+        addTransitions(cls.getTriggers());
+        addTransitions(cls.getSendMessages());
+    }
+
+    private void addStrings(List<String> values) throws IOException {
+        classes.writeInt(lists.count);
+        classes.writeInt(values.size());
+        for (String value: values) {
+            lists.count++;
+            lists.writeInt(string(value));
+        }
+    }
+
+    private void addTransitions(List<ClassModel.Transition> values) throws IOException {
+        classes.writeInt(transitions.count);
+        classes.writeInt(values.size());
+        for (ClassModel.Transition transition: values) {
+            transitions.count++;
+            transitions.writeInt(string(transition.getFrom()));
+            transitions.writeInt(string(transition.getTo()));
+            transitions.writeInt(string(transition.getName()));
+        }
+    }
+
+    private static int flags(ClassModel.Member member) {
+        return (member.isStatic() ? STATIC : 0) | (member.isAbstract() ? ABSTRACT : 0);
+    }
+
+    private int string(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer index = stringIndexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            stringIndexes.put(value, index);
+            strings.add(value);
+        }
+        return index;
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(classes.count);
+        out.writeInt(lists.count);
+        out.writeInt(attributes.count);
+        out.writeInt(operations.count);
+        out.writeInt(parameters.count);
+        out.writeInt(transitions.count);
+        out.writeInt(strings.size());
+        for (Section section: new Section[] {classes, lists, attributes, operations, parameters, transitions}) {
+            section.bytes.writeTo(out);
+        }
+        List<byte[]> encoded = new ArrayList<>();
+        int offset = 0;
+        for (String s: strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            out.writeInt(offset);
+            offset += bytes.length;
+        }
+        out.writeInt(offset);
+        for (byte[] bytes: encoded) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Maps file and rebuilds the models it holds.
+     */
+    public static List<ClassModel> read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return new Reader(buffer).read();
+        }
+        catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException
+                | NegativeArraySizeException e) {
+            throw new IOException(file + " is truncated or corrupt", e);
+        }
+    }
+
+    private static class Reader {
+        private final ByteBuffer buffer;
+        private final int classCount;
+        private final int classes;
+        private final int lists;
+        private final int attributes;
+        private final int operations;
+        private final int parameters;
+        private final int transitions;
+        private final String[] strings;
+
+        Reader(ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            if (buffer.limit() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+                throw new IOException("not a model file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("model file version " + buffer.getInt(4) + " is not supported");
+            }
+            classCount = buffer.getInt(8);
+            classes = HEADER_INTS * 4;
+            lists = section(classes, classCount, CLASS_INTS);
+            attributes = section(lists, buffer.getInt(12), 1);
+            operations = section(attributes, buffer.getInt(16), ATTRIBUTE_INTS);
+            parameters = section(operations, buffer.getInt(20), OPERATION_INTS);
+            transitions = section(parameters, buffer.getInt(24), PARAMETER_INTS);
+            int offsets = section(transitions, buffer.getInt(28), TRANSITION_INTS);
+            // checked before the array is allocated, so that a corrupt count cannot ask for gigabytes
+            int bytes = section(offsets, buffer.getInt(32), 1) + 4;
+            if (bytes > buffer.limit()) {
+                throw new IOException("model file is truncated");
+            }
+
+            strings = new String[buffer.getInt(32)];
+            byte[] scratch = new byte[0];
+            SymbolPool symbols = new SymbolPool(); // for this read only
+            for (int i = 0; i < strings.length; i++) {
+                int start = buffer.getInt(offsets + i * 4);
+                int length = buffer.getInt(offsets + (i + 1) * 4) - start;
+                if (start < 0 || length < 0 || (long) bytes + start + length > buffer.limit()) {
+                    throw new IOException("model file is truncated");
+                }
+                if (scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(bytes + start);
+                slice.get(scratch, 0, length);
+                strings[i] = symbols.intern(new String(scratch, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Where the section that follows count records of ints ints each, from start, begins.
+         */
+        private int section(int start, int count, int ints) throws IOException {
+            long end = start + (long) count * ints * 4;
+            if (count < 0 || end > buffer.limit()) {
+                throw new IOException("model file is truncated");
+            }
+            return (int) end;
+        }
+
+        List<ClassModel> read() {
+            List<ClassModel> models = new ArrayList<>(classCount);
+            for (int i = 0; i < classCount; i++) {
+                models.add(readClass(classes + i * CLASS_INTS * 4));
+            }
+            return models;
+        }
+
+        private ClassModel readClass(int at) {
+            ClassModel cls = new ClassModel(string(at), string(at + 4), (buffer.getInt(at + 12) & INTERFACE) != 0);
+            cls.setModule(string(at + 8));
+            readStrings(at + 16, cls.getImports());
+            readStrings(at + 24, cls.getWildcardImports());
+
+            int first = buffer.getInt(at + 32);
+            int count = buffer.getInt(at + 36);
+            for (int i = first; i < first + count; i++) {
+                int record = attributes + i * ATTRIBUTE_INTS * 4;
+                ClassModel.Attribute attribute = new ClassModel.Attribute(string(record), string(record + 4));
+                readModifiers(record + 8, attribute);
+                cls.getAttributes().add(attribute);
+            }
+
+            first = buffer.getInt(at + 40);
+            count = buffer.getInt(at + 44);
+            for (int i = first; i < first + count; i++) {
+                int record = operations + i * OPERATION_INTS * 4;
+                ClassModel.Operation operation = new ClassModel.Operation(string(record), string(record + 4));
+                readModifiers(record + 8, operation);
+                int firstParameter = buffer.getInt(record + 16);
+                int parameterCount = buffer.getInt(record + 20);
+                for (int j = firstParameter; j < firstParameter + parameterCount; j++) {
+                    int parameter = parameters + j * PARAMETER_INTS * 4;
+                    operation.getParameters().add(
+                            new ClassModel.Parameter(string(parameter), string(parameter + 4)));
+                }
+                cls.getOperations().add(operation);
+            }
+
+            readStrings(at + 48, cls.getExtendedTypes());
+            readStrings(at + 56, cls.getImplementedTypes());
+            readStrings(at + 64, cls.getAggregatedTypes());
+            readTransitions(at + 72, cls.getTriggers());
+            readTransitions(at + 80, cls.getSendMessages());
+            return cls;
+        }
+
+        private void readModifiers(int at, ClassModel.Member member) {
+            member.setVisibility(string(at));
+            int flags = buffer.getInt(at + 4);
+            member.setStatic((flags & STATIC) != 0);
+            member.setAbstract((flags & ABSTRACT) != 0);
+        }
+
+        private void readStrings(int at, List<String> values) {
+            int first = buffer.getInt(at);
+            int count = buffer.getInt(at + 4);
+            for (int i = first; i < first + count; i++) {
+                values.add(string(lists + i * 4));
+            }
+        }
+
+        private void readTransitions(int at, List<ClassModel.Transition> values) {
+            int first = buffer.getInt(at);
+            int count = buffer.getInt(at + 4);
+            for (int i = first; i < first + count; i++) {
+                int record = transitions + i * TRANSITION_INTS * 4;
+                values.add(new ClassModel.Transition(string(record), string(record + 4), string(record + 8)));
+            }
+        }
+
+        // the string whose index is stored at at
+        private String string(int at) {
+            int index = buffer.getInt(at);
+            return index < 0 ? null : strings[index];
+        }
+    }
+
+    // a section is written into memory first, its size is only known once every class was added
+    private static class Section {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 0;
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+    }
+}
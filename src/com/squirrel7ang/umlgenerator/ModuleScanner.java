@@ -0,0 +1,129 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns what the user points at into source modules: a source directory is one module, a Maven
+ * pom.xml is every module it builds, following {@code <modules>} down through aggregator poms.
+ */
+public class ModuleScanner {
+    private static final String DEFAULT_SOURCE_DIRECTORY = "src/main/java";
+
+    private final DocumentBuilder builder;
+    private final Set<Path> visited = new HashSet<>();
+
+    public ModuleScanner() {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            // a pom never needs a DTD, and fetching one would be a network access
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            factory.setExpandEntityReferences(false);
+            builder = factory.newDocumentBuilder();
+        }
+        catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<SourceModule> scan(Path path) throws IOException {
+        List<SourceModule> modules = new ArrayList<>();
+        if (Files.isRegularFile(path) && path.getFileName().toString().equals("pom.xml")) {
+            scanPom(path, modules);
+        }
+        else {
+            modules.add(new SourceModule(moduleName(path), path));
+        }
+        return modules;
+    }
+
+    private void scanPom(Path pom, List<SourceModule> modules) throws IOException {
+        if (!visited.add(pom.toAbsolutePath().normalize())) {
+            return;
+        }
+        Element project;
+        try {
+            Document document = builder.parse(pom.toFile());
+            project = document.getDocumentElement();
+        }
+        catch (SAXException e) {
+            throw new IOException(pom + " is not a valid pom: " + e.getMessage(), e);
+        }
+        Path dir = pom.toAbsolutePath().getParent();
+
+        Element moduleList = child(project, "modules");
+        if (moduleList != null) {
+            for (Element module: children(moduleList, "module")) {
+                Path path = dir.resolve(module.getTextContent().trim());
+                scanPom(Files.isDirectory(path) ? path.resolve("pom.xml") : path, modules);
+            }
+        }
+        if ("pom".equals(text(project, "packaging"))) {
+            return;
+        }
+
+        String sourceDirectory = DEFAULT_SOURCE_DIRECTORY;
+        Element build = child(project, "build");
+        if (build != null && text(build, "sourceDirectory") != null) {
+            // ${project.basedir}/src is the usual way of spelling a directory relative to the pom
+            sourceDirectory = text(build, "sourceDirectory").replace("${project.basedir}/", "")
+                    .replace("${basedir}/", "");
+        }
+        Path root = dir.resolve(sourceDirectory).normalize();
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        String name = text(project, "artifactId");
+        modules.add(new SourceModule(name == null ? moduleName(dir) : name, root, dir));
+    }
+
+    // the directory of a module rather than its src/main/java
+    static String moduleName(Path root) {
+        Path path = moduleDir(root);
+        return path.getFileName() == null ? path.toString() : path.getFileName().toString();
+    }
+
+    static Path moduleDir(Path root) {
+        Path path = root.toAbsolutePath().normalize();
+        if (path.endsWith(DEFAULT_SOURCE_DIRECTORY) && path.getNameCount() > 3) {
+            path = path.getParent().getParent().getParent();
+        }
+        return path;
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> children = children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Node node = nodes.item(i);
+            if (node instanceof Element && node.getNodeName().equals(name)) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element parent, String name) {
+        Element element = child(parent, name);
+        return element == null ? null : element.getTextContent().trim();
+    }
+}
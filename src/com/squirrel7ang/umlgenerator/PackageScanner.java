@@ -0,0 +1,148 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the package declaration of a source file without parsing it. Only the bytes before the
+ * declaration (comments, whitespace) are read, a small buffer at a time.
+ */
+public class PackageScanner {
+    private static final int BUFFER_SIZE = 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private PackageScanner(FileChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * Returns the package of file, "" for the default package, or null if the header is too unusual
+     * to tell without a real parse (annotations on the package, unicode escapes...).
+     */
+    public static String scan(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new PackageScanner(channel).scan();
+        }
+    }
+
+    private String scan() throws IOException {
+        skipBom();
+        String keyword = nextIdentifier();
+        if (keyword == null) {
+            return null;
+        }
+        if (!keyword.equals("package")) {
+            // the first token is already an import or a type declaration
+            return "";
+        }
+        StringBuilder name = new StringBuilder();
+        while (true) {
+            String part = nextIdentifier();
+            if (part == null) {
+                return null;
+            }
+            name.append(part);
+            int c = skipBlanks();
+            if (c == ';') {
+                return name.toString();
+            }
+            if (c != '.') {
+                return null;
+            }
+            read();
+            name.append('.');
+        }
+    }
+
+    private void skipBom() throws IOException {
+        if (peek() == 0xef) {
+            read();
+            read();
+            read();
+        }
+    }
+
+    // the next identifier after any whitespace and comments, or null if something else comes first
+    private String nextIdentifier() throws IOException {
+        int c = skipBlanks();
+        if (!isIdentifierStart(c)) {
+            return null;
+        }
+        StringBuilder identifier = new StringBuilder();
+        while (isIdentifierPart(peek())) {
+            identifier.append((char) read());
+        }
+        if (peek() >= 0x80 || peek() == '\\') {
+            return null;
+        }
+        return identifier.toString();
+    }
+
+    // skips whitespace and comments, returns the next byte without consuming it
+    private int skipBlanks() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                read();
+            }
+            else if (c == '/') {
+                read();
+                int next = read();
+                if (next == '/') {
+                    while (c != '\n' && c != -1) {
+                        c = read();
+                    }
+                }
+                else if (next == '*') {
+                    int prev = 0;
+                    c = read();
+                    while (c != -1 && !(prev == '*' && c == '/')) {
+                        prev = c;
+                        c = read();
+                    }
+                }
+                else {
+                    return -1;
+                }
+            }
+            else {
+                return c;
+            }
+        }
+    }
+
+    private static boolean isIdentifierStart(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(int c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private int peek() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get(buffer.position()) & 0xff;
+    }
+
+    private int read() throws IOException {
+        if (!buffer.hasRemaining() && !fill()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int n = channel.read(buffer);
+        buffer.flip();
+        return n > 0;
+    }
+}
@@ -0,0 +1,74 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * On-disk cache of {@link FileModel}s keyed by source path, so unchanged files are never parsed twice.
+ */
+public class ParseCache {
+    private static final int MAGIC = 0x554d4c43; // "UMLC"
+    private static final int VERSION = 3;
+
+    private final HashMap<String, FileModel> entries = new HashMap<>();
+
+    public FileModel get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Loads the cache, falling back to an empty one if the file is missing, corrupt or from another version.
+     */
+    public static ParseCache load(Path file) {
+        ParseCache cache = new ParseCache();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            SymbolPool symbols = new SymbolPool(); // for this load only
+            for (int i = 0; i < count; i++) {
+                FileModel model = FileModel.read(in, symbols);
+                cache.entries.put(model.getPath(), model);
+            }
+        }
+        catch (NoSuchFileException e) {
+            return cache;
+        }
+        catch (IOException e) {
+            System.err.println("cache " + file + " is unreadable, ignoring it: " + e.getMessage());
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Replaces the cache file with exactly the given files, so entries of deleted sources do not pile up.
+     */
+    public static void save(Path file, Collection<FileModel> models) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(models.size());
+            for (FileModel model: models) {
+                model.write(out);
+            }
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
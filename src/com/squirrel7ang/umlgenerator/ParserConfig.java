@@ -0,0 +1,128 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ParserConfig {
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean pretty = false;
+    private Path cacheFile = null; // no cache unless asked for
+    private List<String> includes = new ArrayList<>(Arrays.asList("**.java")); // globs relative to the source root
+    private List<String> excludes = new ArrayList<>();
+    private List<String> excludedPackages = new ArrayList<>(Arrays.asList("com.oocourse"));
+    private boolean followLinks = false;
+    private boolean fullParse = false; // keep tokens and comments; bodies are parsed either way
+    private long memoryBudget = 0; // bytes for the model, 0 to keep all of it in memory
+
+    public ParserConfig() {
+    }
+
+    public ParserConfig(ParserConfig other) {
+        threads = other.threads;
+        pretty = other.pretty;
+        cacheFile = other.cacheFile;
+        includes = new ArrayList<>(other.includes);
+        excludes = new ArrayList<>(other.excludes);
+        excludedPackages = new ArrayList<>(other.excludedPackages);
+        followLinks = other.followLinks;
+        fullParse = other.fullParse;
+        memoryBudget = other.memoryBudget;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("thread count must be positive, got " + threads);
+        }
+        this.threads = threads;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    public void setPretty(boolean pretty) {
+        this.pretty = pretty;
+    }
+
+    public Path getCacheFile() {
+        return cacheFile;
+    }
+
+    public void setCacheFile(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    public List<String> getIncludes() {
+        return includes;
+    }
+
+    public void setIncludes(List<String> includes) {
+        this.includes = includes;
+    }
+
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes;
+    }
+
+    public List<String> getExcludedPackages() {
+        return excludedPackages;
+    }
+
+    public void setExcludedPackages(List<String> excludedPackages) {
+        this.excludedPackages = excludedPackages;
+    }
+
+    /**
+     * Whether packageName is one of the excluded packages or lies inside one of them.
+     */
+    public boolean isExcludedPackage(String packageName) {
+        for (String excluded: excludedPackages) {
+            if (packageName.startsWith(excluded)
+                    && (packageName.length() == excluded.length() || packageName.charAt(excluded.length()) == '.')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isFollowLinks() {
+        return followLinks;
+    }
+
+    public void setFollowLinks(boolean followLinks) {
+        this.followLinks = followLinks;
+    }
+
+    public boolean isFullParse() {
+        return fullParse;
+    }
+
+    public void setFullParse(boolean fullParse) {
+        this.fullParse = fullParse;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Limits the memory spent on the model to about memoryBudget bytes: files are read in chunks of a
+     * quarter of it, and the classes and relations found go to temporary files. 0 keeps everything in memory.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memory budget must not be negative, got " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+}
@@ -4,144 +4,678 @@ import com.github.javaparser.*;
 import com.github.javaparser.ast.*;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
 
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
-import com.github.javaparser.ast.body.FieldDeclaration;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.body.Parameter;
-import com.github.javaparser.ast.expr.*;
-import com.github.javaparser.ast.type.ClassOrInterfaceType;
-import com.github.javaparser.ast.type.PrimitiveType;
-import com.github.javaparser.ast.type.Type;
-import com.github.javaparser.ast.type.VoidType;
+import com.github.javaparser.ast.body.TypeDeclaration;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 public class ProjectParser {
-    private final File srcDir;
-    private final ArrayList<File> javaSourceFiles = new ArrayList<>();
-    private final ArrayList<CompilationUnit> asts = new ArrayList<>();
-    private final ArrayList<ClassOrInterfaceDeclaration> classOrInterfaces = new ArrayList<>();
-    private final HashMap<String, String> nameToId; // from the Name of a class or interface to its id of its JSONObject
-    private final HashMap<String, JSONObject> nameToJson; // from the name of a class or interface to its JSONObject
-    private final HashMap<String, String> stateNameToId = new HashMap<>(); // from stateName to the id of the UMLState JSONObject;
-    private final HashMap<String, String> lifelineNameToId = new HashMap<>(); // from stateName to the id of the UMLState JSONObject;
-    private final ArrayList<Duo<String, String>> generalizations;
-    private final ArrayList<Duo<String, String>> realizations;
-    private final ArrayList<Duo<String, String>> aggregations;
-    private final ArrayList<Trio<String, String, String>> triggers;
-    private final ArrayList<Trio<String, String, String>> sendMessages;
+    // the same in every file, FragmentMerger builds its projects around them too
+    static final ElementId PROJECT_ID = ElementId.of("uml");
+    static final ElementId MODEL_ID = PROJECT_ID.child('/', "Model");
+    private static final int WINDOW = 1024; // classes built at a time, the rest waits on disk or in the list
+
+    // StaticJavaParser keeps a global configuration, so every worker thread gets a parser of its own
+    private final ThreadLocal<JavaParser> parsers;
+
+    private final ParserConfig config;
+    private final ArrayList<SourceModule> modules = new ArrayList<>();
+    private final List<ClassModel> classes; // no AST outlives the worker that parsed it
+    // shares the names of the models a run extracts, and is cleared once they are loaded
+    private final SymbolPool names = new SymbolPool();
+    private final ModelExtractor extractor = new ModelExtractor(names);
+    private final SymbolTable symbols = new SymbolTable(); // from the qualified name of a class or interface to its id
+    private final ArrayList<ElementId> classIds = new ArrayList<>(); // the id of every element in classes, in the same order
+    private final RelationGraph relations;
+    private final HashMap<String, ElementId> lifelineNameToId = new HashMap<>(); // from stateName to the id of the UMLState JSONObject;
+    // ids of the elements that may share a path, see unique(). Shards are written concurrently
+    private final Set<ElementId> usedIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final ArrayList<ClassModel.Transition> sendMessages;
+    private final Stats stats = new Stats();
 
     public ProjectParser(String path) {
-        File file = new File(path);
-        srcDir = file;
-        nameToId = new HashMap<>();
-        nameToJson = new HashMap<>();
-        generalizations = new ArrayList<>();
-        realizations = new ArrayList<>();
-        aggregations = new ArrayList<>();
-        triggers = new ArrayList<>();
-        sendMessages = new ArrayList<>();
-        walk(file);
-        convertToJp();
+        this(new File(path));
     }
 
     public ProjectParser(File file) {
-        srcDir = file;
-        nameToId = new HashMap<>();
-        nameToJson = new HashMap<>();
-        generalizations = new ArrayList<>();
-        realizations = new ArrayList<>();
-        aggregations = new ArrayList<>();
-        triggers = new ArrayList<>();
-        sendMessages = new ArrayList<>();
-        walk(file);
+        this(file, new ParserConfig());
+    }
+
+    public ProjectParser(File file, ParserConfig config) {
+        this(config);
+        walk(file.toPath());
         convertToJp();
     }
 
+    /**
+     * A parser without any source yet, see {@link #addModule} and {@link #convertToJp}.
+     */
+    public ProjectParser(ParserConfig config) {
+        this(config, parsers(config));
+    }
+
+    /**
+     * A parser without any source yet, which parses with parsers from {@link #parsers}: projects parsed one after
+     * another on the same threads can share them.
+     */
+    public ProjectParser(ParserConfig config, ThreadLocal<JavaParser> parsers) {
+        this.config = config;
+        this.parsers = parsers;
+        if (config.getMemoryBudget() > 0) {
+            // a quarter of the budget for the edges not sorted yet, 16 bytes each: key, target and a copy to sort
+            classes = new SpilledClassList();
+            relations = new RelationGraph((int) Math.min(Integer.MAX_VALUE - 8, config.getMemoryBudget() / 4 / 16));
+        }
+        else {
+            classes = new ArrayList<>();
+            relations = new RelationGraph();
+        }
+        sendMessages = new ArrayList<>();
+    }
+
+    /**
+     * A parser over models extracted before, e.g. read back with {@link ModelFile#read}. No source is read.
+     */
+    public ProjectParser(List<ClassModel> models, ParserConfig config) {
+        this(config);
+        classes.addAll(models);
+    }
+
+    public List<ClassModel> getClasses() {
+        return classes;
+    }
+
     public void outputStaruml(String outputPath) {
+        try (FileChannel channel = FileChannel.open(Paths.get(outputPath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeStaruml(channel);
+        }
+        catch (IOException e) {
+            System.err.println("file create fail: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resolves the model and streams the whole project into channel.
+     * Can be called again after the sources were parsed again. A model spilled to disk is dropped once it is
+     * written, it has to be parsed again first.
+     */
+    public void writeStaruml(WritableByteChannel channel) throws IOException {
+        prepareModel();
+        long start = System.nanoTime();
+        MdjWriter out = new MdjWriter(channel, config.isPretty());
+        ForkJoinPool pool = newBuildPool();
         try {
-            BufferedWriter out = new BufferedWriter(new FileWriter(outputPath));
-            out.write(this.toJSON().toString(2));
+            writeUmlProject(out, pool);
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
             out.close();
+            releaseSpill();
+            stats.time(Stats.Stage.OUTPUT, start);
+            stats.addNanos(Stats.Stage.OUTPUT_IO, out.getWriteNanos());
+            stats.add(Stats.Counter.BYTES_WRITTEN, out.getBytesWritten());
+        }
+    }
+
+    /**
+     * Writes the project as StarUML fragments (.mfj) into directory instead of a single .mdj: one UMLPackage per
+     * module, or per Java package if byPackage, each with the state machines of its classes. The shards are
+     * written in parallel and a shard whose content did not change is not touched. References between shards
+     * are kept, they resolve once the fragments are imported into the same project or merged with
+     * {@link FragmentMerger}.
+     */
+    public void outputShards(String directory, boolean byPackage) {
+        prepareModel();
+        long start = System.nanoTime();
+        LinkedHashMap<String, List<Integer>> shards = new LinkedHashMap<>(); // from a name to its classes
+        for (int i = 0; i < classes.size(); i++) {
+            ClassModel cls = classes.get(i);
+            String name = byPackage ? cls.getPackageName() : cls.getModule();
+            shards.computeIfAbsent(name, k -> new ArrayList<>()).add(i);
+        }
+
+        Path dir = Paths.get(directory);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(config.getThreads(), shards.size())));
+        try {
+            Files.createDirectories(dir);
+            List<Future<Void>> results = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> shard: shards.entrySet()) {
+                results.add(pool.submit(() -> {
+                    writeFragment(dir.resolve(fragmentName(shard.getKey())),
+                            out -> writeUmlShard(out, shard.getKey(), shard.getValue()));
+                    return null;
+                }));
+            }
+            for (Future<Void> result: results) {
+                result.get();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("file create fail: " + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            System.err.println("file create fail: " + e.getCause().getMessage());
+        }
+        finally {
+            pool.shutdownNow();
+            releaseSpill();
+            stats.time(Stats.Stage.OUTPUT, start);
+        }
+    }
+
+    // the files of a spilled model are deleted as soon as it is written rather than when the JVM exits,
+    // which under --batch may be many projects later
+    private void releaseSpill() {
+        if (classes instanceof SpilledClassList) {
+            ((SpilledClassList) classes).close();
+            relations.clear();
+        }
+    }
+
+    private interface FragmentContent {
+        void write(MdjWriter out) throws IOException;
+    }
+
+    // writes next to file first, and replaces file only if something changed
+    private void writeFragment(Path file, FragmentContent content) throws IOException {
+        // not a temp file, whose permissions would be kept by the fragment
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 MdjWriter out = new MdjWriter(channel, config.isPretty())) {
+                content.write(out);
+                out.flush();
+                stats.addNanos(Stats.Stage.OUTPUT_IO, out.getWriteNanos());
+                stats.add(Stats.Counter.BYTES_WRITTEN, out.getBytesWritten());
+            }
+            if (Files.isRegularFile(file) && Files.size(file) == Files.size(tmp)
+                    && Arrays.equals(Files.readAllBytes(file), Files.readAllBytes(tmp))) {
+                return;
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void writeUmlShard(MdjWriter out, String name, List<Integer> members) throws IOException {
+        ElementId id = MODEL_ID.child('@', name);
+        beginUmlPackage(out, MODEL_ID, id, name.isEmpty() ? "(default)" : name);
+        for (int i: members) {
+            writeUmlClassTree(out, id, i, classes.get(i));
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private static String fragmentName(String shard) {
+        String name = shard.isEmpty() ? "(default)" : shard;
+        return name.replaceAll("[^A-Za-z0-9._()-]", "_") + ".mfj";
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    public void walk(Path root) {
+        addModule(new SourceModule(ModuleScanner.moduleName(root), root));
+    }
+
+    /**
+     * Adds the module and finds its source files. Its classes are only read by {@link #convertToJp}.
+     */
+    public void addModule(SourceModule module) {
+        long start = System.nanoTime();
+        try {
+            List<Path> files = new SourceScanner(config).scan(module.getRoot());
+            module.getFiles().addAll(files);
+            stats.add(Stats.Counter.FILES_SCANNED, files.size());
         }
         catch (IOException e) {
-            System.err.println("file create fail");
+            System.err.println("cannot walk " + module.getRoot() + ": " + e.getMessage());
         }
+        modules.add(module);
+        nameModules();
+        stats.time(Stats.Stage.WALK, start);
     }
 
-    public void walk(File f) {
-        if (f.isDirectory()) {
-            File[] files = f.listFiles();
-            if (files != null) {
-                for (File file: files) {
-                    walk(file);
+    /**
+     * Gives modules found under the same name, e.g. a/src and b/src or two artifacts called core, names
+     * qualified by as many of the directories above them as it takes to tell them apart. Their classes and
+     * shards would be merged otherwise.
+     */
+    private void nameModules() {
+        Map<String, List<SourceModule>> byName = new LinkedHashMap<>();
+        for (SourceModule module: modules) {
+            byName.computeIfAbsent(module.getBaseName(), name -> new ArrayList<>()).add(module);
+        }
+        Set<String> taken = new HashSet<>();
+        for (List<SourceModule> same: byName.values()) {
+            int levels = 0;
+            while (same.size() > 1 && !distinctNames(same, levels) && canQualify(same, levels + 1)) {
+                levels++;
+            }
+            if (!distinctNames(same, levels)) {
+                // a directory given twice is the same whatever is above it, ordinals tell them apart
+                levels = 0;
+            }
+            for (SourceModule module: same) {
+                String name = qualifiedName(module, levels);
+                // a qualified name may be some other module's too
+                for (int i = 2; !taken.add(name); i++) {
+                    name = qualifiedName(module, levels) + " (" + i + ")";
                 }
+                module.setName(name);
+            }
+        }
+    }
+
+    private static boolean distinctNames(List<SourceModule> modules, int levels) {
+        Set<String> names = new HashSet<>();
+        for (SourceModule module: modules) {
+            if (!names.add(qualifiedName(module, levels))) {
+                return false;
             }
-        } else {
-            if (f.toString().endsWith(".java")) {
-                javaSourceFiles.add(f);
+        }
+        return true;
+    }
+
+    private static boolean canQualify(List<SourceModule> modules, int levels) {
+        for (SourceModule module: modules) {
+            if (module.getDir().getNameCount() > levels) {
+                return true;
             }
         }
+        return false;
+    }
+
+    // the name, after the last levels directories above the module, e.g. a/src
+    private static String qualifiedName(SourceModule module, int levels) {
+        Path dir = module.getDir();
+        StringBuilder name = new StringBuilder();
+        for (int i = Math.max(0, dir.getNameCount() - 1 - levels); i < dir.getNameCount() - 1; i++) {
+            name.append(dir.getName(i)).append('/');
+        }
+        return name.append(module.getBaseName()).toString();
+    }
+
+    public List<SourceModule> getModules() {
+        return modules;
     }
 
+    /**
+     * Parses the files of every module. All of them share the worker threads, however they are spread
+     * over the modules.
+     */
     public void convertToJp() {
-        for (File f: javaSourceFiles) {
-            CompilationUnit cu;
-            try {
-                cu = StaticJavaParser.parse(f);
-            } catch (FileNotFoundException e) {
-                System.err.println("File " + f.toString() + " not found");
-                continue;
+        classes.clear();
+        List<Path> files = new ArrayList<>();
+        for (SourceModule module: modules) {
+            module.getFileModels().clear();
+            files.addAll(module.getFiles());
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        if (config.getMemoryBudget() > 0) {
+            spillAll();
+            return;
+        }
+        long start = System.nanoTime();
+        ParseCache cache = config.getCacheFile() == null ? new ParseCache() : ParseCache.load(config.getCacheFile());
+        stats.time(Stats.Stage.CACHE, start);
+
+        List<FileModel> loaded = loadAll(files, f -> cache.get(f.toAbsolutePath().toString()));
+        int i = 0;
+        for (SourceModule module: modules) {
+            for (Path f: module.getFiles()) {
+                if (loaded.get(i) != null) {
+                    module.getFileModels().put(f, loaded.get(i));
+                }
+                i++;
             }
-            if (cu.getPackageDeclaration().isPresent()) {
-                if (cu.getPackageDeclaration().get().getNameAsString().startsWith("com.oocourse")) {
+        }
+        collectClasses();
+        saveCache();
+    }
+
+    /**
+     * Brings the model up to date after the files or directories in changed were created, modified or deleted
+     * under the module roots. Only the files whose content changed are parsed again.
+     * Returns false if none of them is a source file that matters, so the output does not need to be written.
+     */
+    public boolean update(Collection<Path> changed) {
+        SourceScanner scanner = new SourceScanner(config);
+        List<Path> toLoad = new ArrayList<>();
+        List<SourceModule> toLoadModules = new ArrayList<>(); // the module of every file in toLoad
+        HashMap<Path, FileModel> previous = new HashMap<>();
+        for (SourceModule module: modules) {
+            Path root = module.getRoot();
+            TreeSet<Path> files = new TreeSet<>();
+            for (Path changedPath: changed) {
+                // a change above the root, e.g. after lost events, means the whole module
+                Path p = root.startsWith(changedPath) ? root : changedPath;
+                if (!module.contains(p)) {
                     continue;
                 }
+                module.getFiles().removeIf(f -> f.startsWith(p));
+                Iterator<Map.Entry<Path, FileModel>> it = module.getFileModels().entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<Path, FileModel> entry = it.next();
+                    if (entry.getKey().startsWith(p)) {
+                        previous.put(entry.getKey(), entry.getValue());
+                        it.remove();
+                    }
+                }
+                if (Files.isDirectory(p)) {
+                    try {
+                        files.addAll(scanner.scan(root, p));
+                    }
+                    catch (IOException e) {
+                        System.err.println("cannot walk " + p + ": " + e.getMessage());
+                    }
+                }
+                else if (Files.isRegularFile(p) && scanner.accepts(root, p)) {
+                    files.add(p);
+                }
+            }
+            module.getFiles().addAll(files);
+            Collections.sort(module.getFiles());
+            for (Path f: files) {
+                toLoad.add(f);
+                toLoadModules.add(module);
+            }
+        }
+
+        // the models from before the change act as the cache, so touched but unchanged files are not parsed
+        List<FileModel> loaded = loadAll(toLoad, previous::get);
+        boolean updated = false;
+        for (int i = 0; i < toLoad.size(); i++) {
+            FileModel model = loaded.get(i);
+            FileModel before = previous.remove(toLoad.get(i));
+            if (model != null) {
+                toLoadModules.get(i).getFileModels().put(toLoad.get(i), model);
             }
-            asts.add(cu);
-            for (Node ci: cu.getChildNodes()) {
-                if (ci instanceof ClassOrInterfaceDeclaration) {
-                    classOrInterfaces.add((ClassOrInterfaceDeclaration) ci);
+            updated |= model == null ? before != null : before == null || !before.hasSameContent(model.getHash());
+        }
+        // whatever is left was deleted
+        updated |= !previous.isEmpty();
+        if (updated) {
+            collectClasses();
+            saveCache();
+        }
+        return updated;
+    }
+
+    /**
+     * Loads every file on the worker threads. The result is in the order of files, with null for skipped files.
+     */
+    private List<FileModel> loadAll(List<Path> files, Function<Path, FileModel> cachedModels) {
+        List<FileModel> models = new ArrayList<>();
+        if (files.isEmpty()) {
+            return models;
+        }
+        long start = System.nanoTime();
+        int threads = Math.max(1, Math.min(config.getThreads(), files.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<FileModel>> results = new ArrayList<>();
+            for (Path f: files) {
+                FileModel cached = cachedModels.apply(f);
+                results.add(pool.submit(() -> load(f, cached)));
+            }
+            // merge in the order of files, whichever worker finished first
+            for (Future<FileModel> result: results) {
+                FileModel model = result.get();
+                if (model == null) {
+                    stats.add(Stats.Counter.FILES_SKIPPED, 1);
                 }
+                models.add(model);
             }
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("parsing interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("parsing failed", e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+            names.clear();
+            extractor.clear();
+            stats.time(Stats.Stage.PARSE, start);
+        }
+        return models;
     }
 
-    public JSONObject toJSON() {
-        return getUmlProject();
+    /**
+     * Reads the files in chunks of a quarter of the memory budget, and sends the classes of every chunk
+     * to disk before the next one is read. The file models are not kept, there is no cache to update.
+     */
+    private void spillAll() {
+        long chunkBytes = Math.max(1, config.getMemoryBudget() / 4);
+        for (SourceModule module: modules) {
+            List<Path> chunk = new ArrayList<>();
+            long bytes = 0;
+            for (Path f: module.getFiles()) {
+                chunk.add(f);
+                bytes += f.toFile().length();
+                if (bytes >= chunkBytes) {
+                    spill(module, chunk);
+                    chunk.clear();
+                    bytes = 0;
+                }
+            }
+            spill(module, chunk);
+        }
     }
 
-    private JSONObject getUmlProject() {
-        JSONObject json = new JSONObject();
-        String id = allocId();
+    private void spill(SourceModule module, List<Path> files) {
+        for (FileModel model: loadAll(files, f -> null)) {
+            if (model == null) {
+                continue;
+            }
+            for (ClassModel cls: model.getClasses()) {
+                cls.setModule(module.getName());
+                classes.add(cls);
+            }
+        }
+    }
 
-        JSONArray ownedElements = new JSONArray();
-        ownedElements.put(getUmlModel(id));
-        if (!triggers.isEmpty()) {
-            ownedElements.put(getUmlStateMachine(id));
+    private void collectClasses() {
+        classes.clear();
+        for (SourceModule module: modules) {
+            for (FileModel model: module.getFileModels().values()) {
+                for (ClassModel cls: model.getClasses()) {
+                    cls.setModule(module.getName());
+                    classes.add(cls);
+                }
+            }
+        }
+    }
+
+    private void saveCache() {
+        if (config.getCacheFile() == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<FileModel> fileModels = new ArrayList<>();
+        for (SourceModule module: modules) {
+            fileModels.addAll(module.getFileModels().values());
+        }
+        try {
+            ParseCache.save(config.getCacheFile(), fileModels);
+        }
+        catch (IOException e) {
+            System.err.println("cache save fail: " + e.getMessage());
         }
+        stats.time(Stats.Stage.CACHE, start);
+    }
+
+    /**
+     * Returns the cached model of f if f is unchanged, otherwise parses it and reduces it to its class models,
+     * or returns null if f is to be skipped. Runs on the worker threads, the AST never leaves this method.
+     * Excluded files are never cached, so that changing the exclusions does not need a fresh cache.
+     */
+    private FileModel load(Path f, FileModel cached) throws IOException {
+        byte[] content;
+        long size;
+        long lastModified;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(f, BasicFileAttributes.class);
+            size = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+            if (cached != null && cached.hasSameStat(size, lastModified)) {
+                if (isExcluded(cached)) {
+                    return null;
+                }
+                stats.add(Stats.Counter.FILES_CACHED, 1);
+                return cached;
+            }
+            // the package declaration is usually within the first few hundred bytes, much cheaper than a parse
+            String packageName = PackageScanner.scan(f);
+            if (packageName != null && config.isExcludedPackage(packageName)) {
+                return null;
+            }
+            content = Files.readAllBytes(f);
+        } catch (NoSuchFileException e) {
+            System.err.println("File " + f.toString() + " not found");
+            return null;
+        }
+        byte[] hash = digest(content);
+        if (cached != null && cached.hasSameContent(hash)) {
+            if (isExcluded(cached)) {
+                return null;
+            }
+            stats.add(Stats.Counter.FILES_CACHED, 1);
+            return cached.withStat(size, lastModified);
+        }
+
+        ParseResult<CompilationUnit> result = parsers.get().parse(new ByteArrayInputStream(content));
+        if (!result.isSuccessful() || !result.getResult().isPresent()) {
+            System.err.println("File " + f.toString() + " cannot be parsed: " + result.getProblems());
+            return null;
+        }
+        stats.add(Stats.Counter.FILES_PARSED, 1);
+        CompilationUnit cu = result.getResult().get();
+        String packageName = "";
+        if (cu.getPackageDeclaration().isPresent()) {
+            packageName = cu.getPackageDeclaration().get().getNameAsString();
+            // PackageScanner could not tell for this one
+            if (config.isExcludedPackage(packageName)) {
+                return null;
+            }
+        }
+        FileModel model = new FileModel(f.toAbsolutePath().toString(), size, lastModified, hash);
+        try {
+            for (TypeDeclaration<?> type: cu.getTypes()) {
+                if (type instanceof ClassOrInterfaceDeclaration) {
+                    model.getClasses().add(
+                            extractor.extract((ClassOrInterfaceDeclaration) type, packageName, cu.getImports()));
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // e.g. an annotation the extractor does not expect: the file is skipped like one that does not parse
+            System.err.println("File " + f.toString() + " cannot be processed: " + e);
+            return null;
+        }
+        return model;
+    }
+
+    /**
+     * A parser for every thread that asks, configured for config.
+     */
+    public static ThreadLocal<JavaParser> parsers(ParserConfig config) {
+        return ThreadLocal.withInitial(() -> newParser(config));
+    }
+
+    private static JavaParser newParser(ParserConfig config) {
+        ParserConfiguration configuration = new ParserConfiguration();
+        if (!config.isFullParse()) {
+            // tokens and comments are only needed to print the source back, which the generator never does
+            configuration.setStoreTokens(false);
+            configuration.setAttributeComments(false);
+        }
+        return new JavaParser(configuration);
+    }
+
+    // the exclusions may have changed since the file was cached
+    private boolean isExcluded(FileModel cached) {
+        return !cached.getClasses().isEmpty()
+                && config.isExcludedPackage(cached.getClasses().get(0).getPackageName());
+    }
+
+    private static byte[] digest(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(content);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeUmlProject(MdjWriter out, ForkJoinPool pool) throws IOException {
+        beginUmlProject(out);
+        writeUmlModel(out, pool);
         /*
         if (!sendMessages.isEmpty()) {
-            ownedElements.put(getUmlCollaboration(id));
+            out.value(getUmlCollaboration(id));
         }
          */
-        json.put("ownedElements", ownedElements);
-
-        json.put("name", "uml");
-        json.put("_id", id);
-        json.put("_type", "Project");
-        return json;
+        out.endArray();
+        out.endObject();
     }
 
-    private JSONObject getUmlCollaboration(String parentId) {
+    private JSONObject getUmlCollaboration(ElementId parentId) {
         JSONObject json = new JSONObject();
-        String id = allocId();
+        ElementId id = parentId.child('/', "Collaboration1");
 
         json.put("name", "Collaboration1");
-        json.put("_id", id);
+        json.put("_id", id.toString());
         json.put("_type", "UMLCollaboration");
         json.put("_parent", getRef(parentId));
 
@@ -152,12 +686,12 @@ public class ProjectParser {
         return json;
     }
 
-    private JSONObject getUmlInteraction(String parentId) {
+    private JSONObject getUmlInteraction(ElementId parentId) {
         JSONObject json = new JSONObject();
-        String id = allocId();
+        ElementId id = parentId.child('/', "Interaction1");
 
         json.put("name", "Interaction1");
-        json.put("_id", id);
+        json.put("_id", id.toString());
         json.put("_type", "UMLInteraction");
         json.put("_parent", getRef(parentId));
 
@@ -167,10 +701,10 @@ public class ProjectParser {
 
         JSONArray messages = new JSONArray();
         JSONArray participants = new JSONArray();
-        for (Trio<String, String, String> tri: sendMessages) {
-            String from = tri.getX();
-            String to = tri.getY();
-            String methodName = tri.getZ();
+        for (ClassModel.Transition tri: sendMessages) {
+            String from = tri.getFrom();
+            String to = tri.getTo();
+            String methodName = tri.getName();
 
             // add participants(lifeline) if necessary
             if (!lifelineNameToId.containsKey(from)) {
@@ -182,9 +716,9 @@ public class ProjectParser {
 
             // add message
             JSONObject message = new JSONObject();
-            String messageId = allocId();
+            ElementId messageId = unique(id.child('>', from).child('>', to).child('>', methodName));
             message.put("name", methodName);
-            message.put("_id", messageId);
+            message.put("_id", messageId.toString());
             message.put("_type", "UMLMessage");
             message.put("_parent", getRef(id));
 
@@ -200,577 +734,489 @@ public class ProjectParser {
         return json;
     }
 
-    private JSONObject getUmlLifeline(String parentId, String lifelineName) {
-        String lifelineId = allocId();
+    private JSONObject getUmlLifeline(ElementId parentId, String lifelineName) {
+        ElementId lifelineId = parentId.child('/', lifelineName);
         lifelineNameToId.put(lifelineName, lifelineId);
         JSONObject obj = new JSONObject();
         obj.put("name", lifelineName);
-        obj.put("_id", lifelineId);
+        obj.put("_id", lifelineId.toString());
         obj.put("_parent", getRef(parentId));
         obj.put("_type", "UMLLifeline");
         obj.put("isMultiInstance", false);
         return obj;
     }
 
-    private JSONObject getSequenceDiagram(String parentId) {
+    private JSONObject getSequenceDiagram(ElementId parentId) {
         JSONObject json = new JSONObject();
-        String id = allocId();
+        ElementId id = parentId.child('/', "SequenceDiagram1");
 
         json.put("name", "SequenceDiagram1");
-        json.put("_id", id);
+        json.put("_id", id.toString());
         json.put("_type", "UMLSequenceDiagram");
         json.put("_parent", getRef(parentId));
 
         return json;
     }
 
-    private JSONObject getUmlStateMachine(String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        json.put("name", "StateMachine1");
-        json.put("_id", id);
-        json.put("_type", "UMLStateMachine");
-        json.put("_parent", getRef(parentId));
-
-        JSONArray ownedElements = new JSONArray();
-        ownedElements.put(getStatechartDiagram(id));
-        JSONArray regions = new JSONArray();
-        regions.put(getUmlRegion(id));
-
-        json.put("ownedElements", ownedElements);
-        json.put("regions", regions);
-
-        return json;
+    /**
+     * Opens the project and its ownedElements. Merged fragments start the same way, see {@link FragmentMerger}.
+     */
+    static void beginUmlProject(MdjWriter out) throws IOException {
+        out.beginObject();
+        out.name("name").value("uml");
+        out.name("_id").value(PROJECT_ID.toString());
+        out.name("_type").value("Project");
+        out.name("ownedElements").beginArray();
     }
 
-    private JSONObject getUmlRegion(String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        json.put("_id", id);
-        json.put("_type", "UMLRegion");
-        json.put("_parent", getRef(parentId));
-
-
-        JSONArray vertices = new JSONArray();
-        JSONArray transitions = new JSONArray();
-        for (Trio<String, String, String> tri: triggers) {
-            String from = tri.getX();
-            String to = tri.getY();
-            String methodName = tri.getZ();
+    /**
+     * Opens the model and its ownedElements, which already hold the class diagram.
+     */
+    static void beginUmlModel(MdjWriter out) throws IOException {
+        out.beginObject();
+        out.name("name").value("Model");
+        out.name("_id").value(MODEL_ID.toString());
+        out.name("_type").value("UMLModel");
+        out.name("_parent").ref(PROJECT_ID);
+        out.name("ownedElements").beginArray();
+        out.value(getUmlClassDiagram(MODEL_ID));
+    }
 
-            // add vertices if necessary
-            if (!stateNameToId.containsKey(from)) {
-                vertices.put(getUmlState(id, from));
+    private void writeUmlModel(MdjWriter out, ForkJoinPool pool) throws IOException {
+        ElementId id = MODEL_ID;
+        beginUmlModel(out);
+        // the classes of a module are next to each other, a package is open while they are written
+        boolean packaged = hasSeveralModules();
+        ElementId parent = id; // of the classes being built
+        ElementId open = null; // the package being written
+        String previous = null; // the module of the class before
+        // a class is written straight into the document, or into the buffer of its slot when the classes of a
+        // window are written concurrently; the slots keep their buffers from one window to the next
+        int classDepth = out.getDepth() + (packaged ? 2 : 0);
+        ClassModel[] window = new ClassModel[Math.min(WINDOW, classes.size())];
+        ElementId[] parents = new ElementId[window.length];
+        MdjWriter[] slots = pool == null ? null : new MdjWriter[window.length];
+        for (int first = 0; first < classes.size(); first += WINDOW) {
+            int count = Math.min(WINDOW, classes.size() - first);
+            // packages are opened and named in order, only the classes inside them are written concurrently
+            for (int k = 0; k < count; k++) {
+                window[k] = classes.get(first + k);
+                String module = window[k].getModule();
+                if (packaged && !module.equals(previous)) {
+                    parent = unique(id.child('@', module));
+                }
+                parents[k] = parent;
+                previous = module;
             }
-            if (!stateNameToId.containsKey(to)) {
-                vertices.put(getUmlState(id, to));
+            int offset = first;
+            if (slots != null) {
+                forEachIndex(pool, count, k -> {
+                    if (slots[k] == null) {
+                        slots[k] = new MdjWriter(config.isPretty());
+                    }
+                    slots[k].reset(classDepth);
+                    try {
+                        writeUmlClassTree(slots[k], parents[k], offset + k, window[k]);
+                    }
+                    catch (IOException e) {
+                        // a writer without a channel has nowhere to fail
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            for (int k = 0; k < count; k++) {
+                if (packaged && parents[k] != open) {
+                    if (open != null) {
+                        out.endArray();
+                        out.endObject();
+                    }
+                    beginUmlPackage(out, id, parents[k], window[k].getModule());
+                    open = parents[k];
+                }
+                if (slots != null) {
+                    out.raw(slots[k]);
+                }
+                else {
+                    writeUmlClassTree(out, parents[k], offset + k, window[k]);
+                }
+                window[k] = null;
             }
-
-            // add Transition
-            JSONObject transition = new JSONObject();
-            String tranId = allocId();
-            transition.put("name", methodName);
-            transition.put("_id", tranId);
-            transition.put("_type", "UMLTransition");
-            transition.put("_parent", getRef(id));
-
-            transition.put("source", getRef(stateNameToId.get(from)));
-            transition.put("target", getRef(stateNameToId.get(to)));
-
-            JSONArray trigs = new JSONArray();
-            trigs.put(getUmlEvent(tranId, methodName));
-
-            transition.put("triggers", trigs);
-
-            transitions.put(transition);
         }
-
-        json.put("vertices", vertices);
-        json.put("transitions", transitions);
-
-        return json;
+        if (packaged) {
+            out.endArray();
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
     }
 
-    private JSONObject getUmlState(String parentId, String stateName) {
-        String vertexId = allocId();
-        stateNameToId.put(stateName, vertexId);
-        JSONObject obj = new JSONObject();
-        obj.put("name", stateName);
-        obj.put("_id", vertexId);
-        obj.put("_parent", getRef(parentId));
-        if (stateName.equals("InitState")) {
-            obj.put("_type", "UMLPseudostate");
-            obj.put("kind", "initial");
+    // cls, the class at index i of classes, with the relations and the state machine it owns
+    private void writeUmlClassTree(MdjWriter out, ElementId parentId, int i, ClassModel cls) throws IOException {
+        ElementId id = classIds.get(i);
+        out.beginObject();
+        out.name("_type").value(cls.isInterface() ? "UMLInterface" : "UMLClass");
+        out.name("_id").value(id.toString());
+        out.name("_parent").ref(parentId);
+        out.name("name").value(cls.getName());
+
+        out.name("attributes").beginArray();
+        for (ClassModel.Attribute attribute: cls.getAttributes()) {
+            writeUmlAttribute(out, attribute, cls, id);
         }
-        else if (stateName.equals("FinalState")) {
-            obj.put("_type", "UMLFinalState");
-
+        out.endArray();
+        out.name("operations").beginArray();
+        for (ClassModel.Operation operation: cls.getOperations()) {
+            writeUmlOperation(out, operation, cls, id);
         }
-        else {
-            obj.put("_type", "UMLState");
+        out.endArray();
+
+        List<ElementId> generalizations = relations.targets(RelationGraph.Kind.GENERALIZATION, id);
+        List<ElementId> realizations = relations.targets(RelationGraph.Kind.REALIZATION, id);
+        List<ElementId> aggregations = relations.targets(RelationGraph.Kind.AGGREGATION, id);
+        if (!generalizations.isEmpty() || !realizations.isEmpty() || !aggregations.isEmpty()
+                || !cls.getTriggers().isEmpty()) {
+            out.name("ownedElements").beginArray();
+            writeUmlRelations(out, id, generalizations, realizations, aggregations);
+            if (!cls.getTriggers().isEmpty()) {
+                out.value(new StateMachineBuilder(id, cls.getName()).addAll(cls.getTriggers()).build());
+            }
+            out.endArray();
         }
-        return obj;
-    }
-
-    private JSONObject getUmlEvent(String parentId, String methodName) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        json.put("name", methodName);
-        json.put("_id", id);
-        json.put("_type", "UMLEvent");
-        json.put("_parent", getRef(parentId));
-
-        return json;
-    }
-
-    private JSONObject getStatechartDiagram(String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        json.put("name", "StatechartDiagram1");
-        json.put("_id", id);
-        json.put("_type", "UMLStatechartDiagram");
-        json.put("_parent", getRef(parentId));
-
-        return json;
+        out.endObject();
     }
 
-    private JSONObject getUmlModel(String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        json.put("ownedElements", new JSONArray());
-        JSONArray arr = json.getJSONArray("ownedElements");
-        arr.put(getUmlClassDiagram(id));
-        for (ClassOrInterfaceDeclaration ci: classOrInterfaces) {
-            arr.put(getUmlClass(id, ci));
+    /**
+     * A pool to build class subtrees on, or null to build them on the calling thread. A spilled model is
+     * read in order only, so it is always built on the calling thread.
+     */
+    private ForkJoinPool newBuildPool() {
+        if (config.getThreads() < 2 || config.getMemoryBudget() > 0 || classes.size() < 2) {
+            return null;
         }
-
-        json.put("name", "Model");
-        json.put("_id", id);
-        json.put("_type", "UMLModel");
-        json.put("_parent", getRef(parentId));
-
-        setReference(json);
-        setRelation();
-        return json;
-    }
-
-    private void setRelation() {
-        setGeneralization();
-        setRealization();
-        setAggregation();
+        return new ForkJoinPool(config.getThreads());
     }
 
-    private void setGeneralization() {
-        for (Duo<String, String> duo: generalizations) {
-            String name1 = duo.getX();
-            String name2 = duo.getY();
-            JSONObject class1 = nameToJson.get(name1);
-            JSONObject class2 = nameToJson.get(name2);
-            if (class1 == null || class2 == null) {
-                continue;
+    // runs task for every index below count, on pool if there is one; every index is written by one task only
+    private static void forEachIndex(ForkJoinPool pool, int count, IntConsumer task) {
+        if (pool == null) {
+            for (int i = 0; i < count; i++) {
+                task.accept(i);
             }
-            JSONObject obj = new JSONObject();
-            obj.put("_type", "UMLGeneralization");
-            obj.put("_parent", getRef(class1.getString("_id")));
-            obj.put("_id", allocId());
-            obj.put("source", getRef(class1.getString("_id")));
-            obj.put("target", getRef(class2.getString("_id")));
-            addOwnedElements(class1, obj);
         }
-    }
-
-    private void setRealization() {
-        for (Duo<String, String> duo: realizations) {
-            String name1 = duo.getX();
-            String name2 = duo.getY();
-            JSONObject class1 = nameToJson.get(name1);
-            JSONObject class2 = nameToJson.get(name2);
-            if (class1 == null || class2 == null) {
-                continue;
-            }
-            JSONObject obj = new JSONObject();
-            obj.put("_type", "UMLRealization");
-            obj.put("_parent", getRef(class1.getString("_id")));
-            obj.put("_id", allocId());
-            obj.put("source", getRef(class1.getString("_id")));
-            obj.put("target", getRef(class2.getString("_id")));
-            addOwnedElements(class1, obj);
+        else {
+            pool.invoke(new RangeTask(0, count, task));
         }
     }
 
-    private void setAggregation() {
-        for (Duo<String, String> duo: aggregations) {
-            String name1 = duo.getX();
-            String name2 = duo.getY();
-            JSONObject class1 = nameToJson.get(name1);
-            JSONObject class2 = nameToJson.get(name2);
-            if (class1 == null || class2 == null) {
-                continue;
-            }
-            JSONObject obj = new JSONObject();
-            obj.put("_type", "UMLAssociation");
-            obj.put("_parent", getRef(class1.getString("_id")));
-            String objId = allocId();
-            obj.put("_id", objId);
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 16; // classes a task builds without splitting
 
-            JSONObject end1 = new JSONObject();
-            end1.put("_type", "UMLAssociationEnd");
-            end1.put("_parent", getRef(objId));
-            end1.put("_id", allocId());
-            end1.put("reference", getRef(class1.getString("_id")));
-            obj.put("end1", end1);
+        private final int from;
+        private final int to;
+        private final IntConsumer task;
 
-            JSONObject end2 = new JSONObject();
-            end2.put("_type", "UMLAssociationEnd");
-            end2.put("_parent", getRef(objId));
-            end2.put("_id", allocId());
-            end2.put("reference", getRef(class2.getString("_id")));
-            end2.put("aggregation", "shared");
-            obj.put("end2", end2);
-
-            addOwnedElements(class1, obj);
+        RangeTask(int from, int to, IntConsumer task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
         }
-    }
 
-    private void addOwnedElements(JSONObject classJson, JSONObject element) {
-        if (!classJson.has("ownedElements")) {
-            classJson.put("ownedElements", new JSONArray());
-        }
-        ((JSONArray) classJson.get("ownedElements")).put(element);
-    }
-
-    private void setReference(JSONObject umlModel) {
-        // turn every "type: ..." "" into a reference if there are any.
-        for (String key: umlModel.keySet()) {
-            if (key.equals("type")) {
-                String name = (String) umlModel.get("type");
-                String id = nameToId.get(name);
-                if (id != null) {
-                    umlModel.put("type", getRef(id));
-                }
-            }
-            else if (key.equals("source")) {
-                String name = (String) umlModel.get("source");
-                String id = nameToId.get(name);
-                if (id != null) {
-                    umlModel.put("source", getRef(id));
-                }
-            }
-            else if (key.equals("target")) {
-                String name = (String) umlModel.get("target");
-                String id = nameToId.get(name);
-                if (id != null) {
-                    umlModel.put("target", getRef(id));
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    task.accept(i);
                 }
+                return;
             }
-            else if (umlModel.get(key) instanceof JSONObject) {
-                setReference((JSONObject) umlModel.get(key));
-            }
-            else if (umlModel.get(key) instanceof JSONArray) {
-                setReference((JSONArray) umlModel.get(key));
-            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, task), new RangeTask(middle, to, task));
         }
     }
 
-    private void setReference(JSONArray json) {
-        for (Object obj: json) {
-            if (obj instanceof JSONObject) {
-                setReference((JSONObject) obj);
-            }
-            else if (obj instanceof JSONArray) {
-                setReference((JSONArray) obj);
+    private boolean hasSeveralModules() {
+        for (int i = 1; i < classes.size(); i++) {
+            if (!getModule(i).equals(getModule(0))) {
+                return true;
             }
         }
+        return false;
     }
 
-    private JSONObject getRef(String id) {
-        JSONObject json = new JSONObject();
-        json.put("$ref", id);
-        return json;
+    // without reading a spilled class back
+    private String getModule(int index) {
+        return classes instanceof SpilledClassList ? ((SpilledClassList) classes).getModule(index)
+                : classes.get(index).getModule();
     }
 
-    private JSONObject getUmlClassDiagram(String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-        json.put("_type", "UMLClassDiagram");
-        json.put("_id", id);
-        json.put("_parent", getRef(parentId));
-        json.put("name", "Main");
-        json.put("defaultDiagram", true);
-
-        return json;
+    // leaves the ownedElements of the package open for its classes
+    private void beginUmlPackage(MdjWriter out, ElementId parentId, ElementId id, String name) throws IOException {
+        out.beginObject();
+        out.name("_type").value("UMLPackage");
+        out.name("_id").value(id.toString());
+        out.name("_parent").ref(parentId);
+        out.name("name").value(name);
+        out.name("ownedElements").beginArray();
     }
 
-    private JSONObject getUmlClass(String parentId, ClassOrInterfaceDeclaration ci) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-        nameToId.put(ci.getNameAsString(), id);
-        nameToJson.put(ci.getNameAsString(), json);
-
-        // basic definition
-        if (ci.isInterface()) {
-            json.put("_type", "UMLInterface");
-        }
-        else {
-            json.put("_type", "UMLClass");
+    /**
+     * Gives every class its id and resolves the relations between them. Every class needs both before the
+     * first one can be written, types can then be resolved to references as soon as their element is created.
+     */
+    public void prepareModel() {
+        ForkJoinPool pool = newBuildPool();
+        try {
+            prepareModel(pool);
         }
-        json.put("_id", id);
-        json.put("_parent", getRef(parentId));
-        json.put("name", ci.getName());
-
-        JSONArray attrs = new JSONArray();
-        JSONArray ops = new JSONArray();
-
-        // operations and attributes
-        for (int i = 0; i < ci.getMembers().size(); i++) {
-            if (ci.getMember(i) instanceof FieldDeclaration) {
-                attrs.put(getUmlAttribute((FieldDeclaration) ci.getMember(i), ci.getNameAsString(), id));
-            }
-            else if (ci.getMember(i) instanceof MethodDeclaration) {
-                ops.put(getUmlOperation((MethodDeclaration) ci.getMember(i), id));
+        finally {
+            if (pool != null) {
+                pool.shutdownNow();
             }
         }
-
-        json.put("attributes", attrs);
-        json.put("operations", ops);
-
-        // store generalization and realization
-        for (ClassOrInterfaceType node: ci.getImplementedTypes()) {
-            realizations.add(new Duo<>(ci.getNameAsString(), node.getNameAsString()));
-        }
-        for (ClassOrInterfaceType  node: ci.getExtendedTypes()) {
-            generalizations.add(new Duo<>(ci.getNameAsString(), node.getNameAsString()));
-        }
-
-        return json;
     }
 
-    public JSONObject getUmlAttribute(FieldDeclaration dec, String classOrInterfaceName, String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-        json.put("_type", "UMLAttribute");
-        json.put("_id", id);
-        json.put("_parent", getRef(parentId));
-        json.put("name", dec.getVariable(0).getNameAsString());
-
-        setModifier(json, dec.getModifiers());
-
-        json.put("type", dec.getVariable(0).getType().toString());
-
-        if (dec.getVariable(0).getType() instanceof ClassOrInterfaceType) {
-            ClassOrInterfaceType _type = ((ClassOrInterfaceType) dec.getVariable(0).getType());
-            // store aggregations
-            storeAggregation(classOrInterfaceName, _type);
+    private void prepareModel(ForkJoinPool pool) {
+        // everything derived from the class models is rebuilt, they may have changed since the last time
+        symbols.clear();
+        classIds.clear();
+        relations.clear();
+        lifelineNameToId.clear();
+        usedIds.clear();
+        sendMessages.clear();
+
+        long start = System.nanoTime();
+        registerClasses(MODEL_ID, pool);
+        stats.time(Stats.Stage.MODEL, start);
+
+        long attributes = 0;
+        long operations = 0;
+        long triggers = 0;
+        for (ClassModel cls: classes) {
+            attributes += cls.getAttributes().size();
+            operations += cls.getOperations().size();
+            triggers += cls.getTriggers().size();
         }
-
-        return json;
-    }
-
-    private void storeAggregation(String classOrInterfaceName, ClassOrInterfaceType type) {
-        String name = type.getNameAsString();
-        aggregations.add(new Duo<>(name, classOrInterfaceName));
-        if (type.getTypeArguments().isPresent()) {
-            for (Type t: type.getTypeArguments().get()) {
-                storeAggregation(classOrInterfaceName, (ClassOrInterfaceType) t);
-            }
-        }
-
+        stats.set(Stats.Counter.CLASSES, classes.size());
+        stats.set(Stats.Counter.ATTRIBUTES, attributes);
+        stats.set(Stats.Counter.OPERATIONS, operations);
+        stats.set(Stats.Counter.RELATIONS, relations.size());
+        stats.set(Stats.Counter.TRIGGERS, triggers);
     }
 
-    public JSONObject getUmlOperation(MethodDeclaration dec, String parentId) {
-        JSONObject json = new JSONObject();
-        String id = allocId();
-
-        // set the basics
-        json.put("_type", "UMLOperation");
-        json.put("_id", id);
-        json.put("_parent", getRef(parentId));
-        json.put("name", dec.getNameAsString());
-
-        // get parameters
-        JSONArray paras = new JSONArray();
-        paras.put(getUmlReturnParameter(dec, id));
-        for (Parameter para: dec.getParameters()) {
-            paras.put(getUmlParameter(para, id));
+    private void registerClasses(ElementId modelId, ForkJoinPool pool) {
+        for (ClassModel cls: classes) {
+            ElementId id = unique(modelId.child(':', cls.getQualifiedName()));
+            classIds.add(id);
+            // interned in the order they are written, a spilled graph is read in that order
+            relations.intern(id);
+            symbols.add(cls, id);
         }
-        json.put("parameters", paras);
 
-        // set modifier of this operation
-        setModifier(json, dec.getModifiers());
-
-        for (AnnotationExpr anno: dec.getAnnotations()) {
-            // get Trigger annotation
-            if (anno.getNameAsString().equals("Trigger")) {
-                setTriggerAnnotation(dec.getNameAsString(), (NormalAnnotationExpr) anno);
-            }
-            else if (anno.getNameAsString().equals("Triggers")) {
-                setTriggersAnnotation(dec.getNameAsString(), (NormalAnnotationExpr) anno);
-            }
-            // get sendMessage annotation
-            else if (anno.getNameAsString().equals("SendMessage")) {
-                setSendMessageAnnotation(dec.getNameAsString(), (NormalAnnotationExpr) anno);
+        // relations can only be resolved once every class is known. The names of a window of classes are
+        // resolved concurrently, each class into its own buffers, which are added in the order of the classes
+        ClassModel[] window = new ClassModel[Math.min(WINDOW, classes.size())];
+        ElementId[][][] resolved = new ElementId[window.length][][];
+        for (int first = 0; first < classes.size(); first += WINDOW) {
+            int count = Math.min(WINDOW, classes.size() - first);
+            for (int k = 0; k < count; k++) {
+                window[k] = classes.get(first + k);
             }
-            else if (anno.getNameAsString().equals("SendMessages")) {
-                setSendMessageAnnotations(dec.getNameAsString(), (NormalAnnotationExpr) anno);
+            forEachIndex(pool, count, k -> resolved[k] = resolveRelations(window[k]));
+            for (int k = 0; k < count; k++) {
+                ElementId id = classIds.get(first + k);
+                for (ElementId target: resolved[k][0]) {
+                    relations.add(RelationGraph.Kind.REALIZATION, id, target);
+                }
+                for (ElementId target: resolved[k][1]) {
+                    relations.add(RelationGraph.Kind.GENERALIZATION, id, target);
+                }
+                for (ElementId source: resolved[k][2]) {
+                    // the association belongs to the aggregated class, like in StarUML
+                    relations.add(RelationGraph.Kind.AGGREGATION, source, id);
+                }
+                sendMessages.addAll(window[k].getSendMessages());
+                resolved[k] = null;
+                window[k] = null;
             }
         }
-        return json;
     }
 
-    private void setSendMessageAnnotation(String methodName, NormalAnnotationExpr anno) {
-        NodeList<MemberValuePair> pairs = anno.getPairs();
-        String from = ((StringLiteralExpr) pairs.get(0).getValue()).getValue();
-        if (pairs.get(1).getValue() instanceof StringLiteralExpr) {
-            String to = ((StringLiteralExpr) pairs.get(1).getValue()).getValue();
-            sendMessages.add(new Trio<>(from, to, methodName + "()"));
-        } else if (pairs.get(1).getValue() instanceof ArrayInitializerExpr) {
-            for (Node _node : ((ArrayInitializerExpr) pairs.get(1).getValue()).getValues()) {
-                String to = ((StringLiteralExpr) _node).getValue();
-                sendMessages.add(new Trio<>(from, to, methodName + "()"));
-            }
-        }
+    // the implemented, extended and aggregated classes of cls, null for a name that is not generated
+    private ElementId[][] resolveRelations(ClassModel cls) {
+        return new ElementId[][] {
+            resolveAll(cls.getImplementedTypes(), cls),
+            resolveAll(cls.getExtendedTypes(), cls),
+            resolveAll(cls.getAggregatedTypes(), cls)
+        };
     }
 
-    private void setSendMessageAnnotations(String methodName, NormalAnnotationExpr anno) {
-        NodeList<MemberValuePair> pairs = anno.getPairs();
-        for (Node node: ((ArrayInitializerExpr) pairs.get(0).getValue()).getValues()) {
-            setTriggerAnnotation(methodName, (NormalAnnotationExpr) node);
+    private ElementId[] resolveAll(List<String> names, ClassModel context) {
+        ElementId[] ids = new ElementId[names.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = symbols.resolve(names.get(i), context);
         }
+        return ids;
     }
 
-    private void setTriggerAnnotation(String methodName, NormalAnnotationExpr anno) {
-        NodeList<MemberValuePair> pairs = anno.getPairs();
-        String from = ((StringLiteralExpr) pairs.get(0).getValue()).getValue();
-        if (pairs.get(1).getValue() instanceof StringLiteralExpr) {
-            String to = ((StringLiteralExpr) pairs.get(1).getValue()).getValue();
-            triggers.add(new Trio<>(from, to, methodName + "()"));
-        } else if (pairs.get(1).getValue() instanceof ArrayInitializerExpr) {
-            for (Node _node : ((ArrayInitializerExpr) pairs.get(1).getValue()).getValues()) {
-                String to = ((StringLiteralExpr) _node).getValue();
-                triggers.add(new Trio<>(from, to, methodName + "()"));
-            }
+    /**
+     * The relations owned by the class, built only now so that they never wait in memory for their class.
+     * The graph holds an edge once and a class has a unique id, so the ids of the relations are unique
+     * without being remembered in usedIds.
+     */
+    private void writeUmlRelations(MdjWriter out, ElementId classId, List<ElementId> generalizations,
+            List<ElementId> realizations, List<ElementId> aggregations) throws IOException {
+        for (ElementId target: generalizations) {
+            writeUmlDependency(out, "UMLGeneralization", classId, target,
+                    classId.child('>', "generalization").child('>', target.toString()));
+        }
+        for (ElementId target: realizations) {
+            writeUmlDependency(out, "UMLRealization", classId, target,
+                    classId.child('>', "realization").child('>', target.toString()));
+        }
+        for (ElementId target: aggregations) {
+            writeUmlAssociation(out, classId, target);
         }
     }
 
-    private void setTriggersAnnotation(String methodName, NormalAnnotationExpr anno) {
-        NodeList<MemberValuePair> pairs = anno.getPairs();
-        for (Node node: ((ArrayInitializerExpr) pairs.get(0).getValue()).getValues()) {
-            setTriggerAnnotation(methodName, (NormalAnnotationExpr) node);
-        }
+    // a generalization or a realization, which only differ in their type
+    private void writeUmlDependency(MdjWriter out, String type, ElementId class1, ElementId class2, ElementId id)
+            throws IOException {
+        out.beginObject();
+        out.name("_type").value(type);
+        out.name("_parent").ref(class1);
+        out.name("_id").value(id.toString());
+        out.name("source").ref(class1);
+        out.name("target").ref(class2);
+        out.endObject();
     }
 
-    private void setModifier(JSONObject json, NodeList<Modifier> modifiers) {
-        for (Modifier _modifier: modifiers) {
-            String modifier = _modifier.toString();
-            if (modifier.startsWith("private")) {
-                json.put("visibility", "private");
-            }
-            else if (modifier.startsWith("protected")) {
-                json.put("visibility", "protected");
-            }
-            else if (modifier.startsWith("public")) {
-                json.put("visibility", "public");
-            }
-            else if (modifier.startsWith("static")) {
-                json.put("isStatic", true);
-            }
-            else if (modifier.startsWith("abstract")) {
-                json.put("isAbstract", true);
-            }
-        }
+    private void writeUmlAssociation(MdjWriter out, ElementId class1, ElementId class2) throws IOException {
+        ElementId id = class1.child('>', "association").child('>', class2.toString());
+        out.beginObject();
+        out.name("_type").value("UMLAssociation");
+        out.name("_parent").ref(class1);
+        out.name("_id").value(id.toString());
+
+        out.name("end1").beginObject();
+        out.name("_type").value("UMLAssociationEnd");
+        out.name("_parent").ref(id);
+        out.name("_id").id(ElementId.mix(id.hash(), '/', "end1"));
+        out.name("reference").ref(class1);
+        out.endObject();
+
+        out.name("end2").beginObject();
+        out.name("_type").value("UMLAssociationEnd");
+        out.name("_parent").ref(id);
+        out.name("_id").id(ElementId.mix(id.hash(), '/', "end2"));
+        out.name("reference").ref(class2);
+        out.name("aggregation").value("shared");
+        out.endObject();
+        out.endObject();
     }
 
-    public JSONObject getUmlReturnParameter(MethodDeclaration dec, String parentId) {
+    private static JSONObject getRef(ElementId id) {
         JSONObject json = new JSONObject();
-        String id = allocId();
-        json.put("_type", "UMLParameter");
-        json.put("_id", id);
-        json.put("_parent", getRef(parentId));
-        json.put("type", dec.getType().toString());
-        json.put("direction", "return");
+        json.put("$ref", id.toString());
         return json;
     }
 
-    public JSONObject getUmlParameter(Parameter para, String parentId) {
+    // a type naming one of the generated classes becomes a reference to it
+    private void writeType(MdjWriter out, String type, ClassModel owner) throws IOException {
+        ElementId id = symbols.resolve(type, owner);
+        if (id != null) {
+            out.name("type").ref(id);
+        }
+        else {
+            out.name("type").value(type);
+        }
+    }
+
+    // two elements may share a path (e.g. classes of the same name in two modules), the later ones get an ordinal
+    private ElementId unique(ElementId id) {
+        ElementId candidate = id;
+        for (int i = 1; !usedIds.add(candidate); i++) {
+            candidate = id.child('~', i);
+        }
+        return candidate;
+    }
+
+    private static JSONObject getUmlClassDiagram(ElementId parentId) {
         JSONObject json = new JSONObject();
-        String id = allocId();
-        json.put("_type", "UMLParameter");
-        json.put("_id", id);
+        ElementId id = parentId.child('/', "Main");
+        json.put("_type", "UMLClassDiagram");
+        json.put("_id", id.toString());
         json.put("_parent", getRef(parentId));
-        json.put("name", para.getName());
-        json.put("type", para.getType().toString());
+        json.put("name", "Main");
+        json.put("defaultDiagram", true);
 
         return json;
     }
 
-    private static Integer _id = 0x11111111;
-    public static String allocId() {
-        return (_id++).toString();
+    // members are by far the most numerous elements: their ids are written from hashes, no object is built
+    private void writeUmlAttribute(MdjWriter out, ClassModel.Attribute attribute, ClassModel owner,
+            ElementId parentId) throws IOException {
+        out.beginObject();
+        out.name("_type").value("UMLAttribute");
+        out.name("_id").id(ElementId.mix(parentId.hash(), '#', attribute.getName()));
+        out.name("_parent").ref(parentId);
+        out.name("name").value(attribute.getName());
+        writeModifier(out, attribute);
+        writeType(out, attribute.getType(), owner);
+        out.endObject();
     }
 
-    private class Duo<X, Y> {
-        public X x;
-        public Y y;
-
-        public Duo(X x, Y y) {
-            this.x = x;
-            this.y = y;
-        }
-
-        @Override
-        public boolean equals(Object object) {
-            if (!(object instanceof Duo)) {
-                return false;
-            }
-            Duo obj = (Duo) object;
-            return x.equals(obj.x) && y.equals(obj.y);
-        }
-
-        public X getX() {
-            return x;
+    private void writeUmlOperation(MdjWriter out, ClassModel.Operation operation, ClassModel owner,
+            ElementId parentId) throws IOException {
+        long id = operationId(parentId, operation);
+        out.beginObject();
+        out.name("_type").value("UMLOperation");
+        out.name("_id").id(id);
+        out.name("_parent").ref(parentId);
+        out.name("name").value(operation.getName());
+
+        out.name("parameters").beginArray();
+        out.beginObject();
+        out.name("_type").value("UMLParameter");
+        out.name("_id").id(ElementId.mix(id, '/', "return"));
+        out.name("_parent").ref(id);
+        writeType(out, operation.getReturnType(), owner);
+        out.name("direction").value("return");
+        out.endObject();
+        for (ClassModel.Parameter para: operation.getParameters()) {
+            out.beginObject();
+            out.name("_type").value("UMLParameter");
+            out.name("_id").id(ElementId.mix(id, '/', para.getName()));
+            out.name("_parent").ref(id);
+            out.name("name").value(para.getName());
+            writeType(out, para.getType(), owner);
+            out.endObject();
         }
+        out.endArray();
 
-        public Y getY() {
-            return y;
-        }
+        writeModifier(out, operation);
+        out.endObject();
     }
 
-    private class Trio<X, Y, Z> {
-        public X x;
-        public Y y;
-        public Z z;
-
-        public Trio(X x, Y y, Z z) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-        }
-
-        @Override
-        public boolean equals(Object object) {
-            if (!(object instanceof Trio)) {
-                return false;
-            }
-            Trio obj = (Trio) object;
-            return x.equals(obj.x) && y.equals(obj.y) && z.equals(obj.z);
+    private void writeModifier(MdjWriter out, ClassModel.Member member) throws IOException {
+        if (member.getVisibility() != null) {
+            out.name("visibility").value(member.getVisibility());
         }
-
-        public X getX() {
-            return x;
+        if (member.isStatic()) {
+            out.name("isStatic").value(true);
         }
-
-        public Y getY() {
-            return y;
+        if (member.isAbstract()) {
+            out.name("isAbstract").value(true);
         }
+    }
 
-        public Z getZ() {
-            return z;
+    // Class#name(Type1,Type2), so overloads and a field of the same name all get their own id
+    private static long operationId(ElementId classId, ClassModel.Operation operation) {
+        long hash = ElementId.mix(classId.hash(), '#', operation.getName());
+        hash = ElementId.mix(hash, '(', "");
+        for (ClassModel.Parameter para: operation.getParameters()) {
+            hash = ElementId.mix(hash, ',', para.getType());
         }
-
+        return ElementId.mix(hash, ')', "");
     }
 }
@@ -0,0 +1,426 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The generalizations, realizations and aggregations between the generated classes. Class ids are interned
+ * to small indexes, an edge is kept only once however often it is added, and the edges leaving a class
+ * are found without looking at any other.
+ *
+ * <p>With a limit on the edges kept in memory, an edge is keyed by its source, its kind and the ordinal of the
+ * add, and sorted by that key. Whenever the limit is reached, the edges are sorted and written to a temporary
+ * run. Before the first edge is read, the runs are merged and duplicates dropped. The edges of a class then
+ * come in the order they were first added, as without a limit. Reading the classes in the order they were
+ * interned reads the merged file once. Such a graph holds at most 2^30 classes and 2^31 - 1 adds.
+ */
+public class RelationGraph {
+    public enum Kind {
+        GENERALIZATION,
+        REALIZATION,
+        AGGREGATION
+    }
+
+    // key: source (30 bits) << 33 | kind (2 bits) << 31 | ordinal (31 bits), never negative
+    private static final int ORDINAL_BITS = 31;
+    private static final long ORDINAL_MASK = (1L << ORDINAL_BITS) - 1;
+    private static final int MAX_SOURCE = (1 << 30) - 1;
+
+    private final HashMap<ElementId, Integer> indexes = new HashMap<>();
+    private final ArrayList<ElementId> ids = new ArrayList<>(); // by index
+    private final EnumMap<Kind, HashSet<Long>> edges = new EnumMap<>(Kind.class); // from << 32 | to
+    private final EnumMap<Kind, ArrayList<List<ElementId>>> outgoing = new EnumMap<>(Kind.class); // by index of from
+    private int size = 0;
+
+    // only used with a limit: the edges not written yet, the runs written, and the merged edges
+    private final long[] buffer; // keys
+    private final int[] bufferTargets; // by position in buffer, which is the ordinal less firstBuffered
+    private int buffered = 0;
+    private long added = 0; // the ordinal of the next add
+    private long firstBuffered = 0; // the ordinal of buffer[0] before it is sorted
+    private final List<Path> runs = new ArrayList<>();
+    private Path merged = null;
+    private long[] sorted = null; // instead of merged, if the edges never needed a run
+    private int[] sortedTargets = null;
+    private EdgeReader reader = null;
+    private long lastQuery = -1;
+
+    public RelationGraph() {
+        this(0);
+    }
+
+    /**
+     * A graph that keeps no more than maxEdgesInMemory edges in memory, or everything if it is 0.
+     */
+    public RelationGraph(int maxEdgesInMemory) {
+        buffer = maxEdgesInMemory > 0 ? new long[maxEdgesInMemory] : null;
+        bufferTargets = maxEdgesInMemory > 0 ? new int[maxEdgesInMemory] : null;
+        for (Kind kind: Kind.values()) {
+            edges.put(kind, new HashSet<>());
+            outgoing.put(kind, new ArrayList<>());
+        }
+    }
+
+    public int intern(ElementId id) {
+        Integer index = indexes.get(id);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(id, index);
+            ids.add(id);
+            if (buffer == null) {
+                for (ArrayList<List<ElementId>> lists: outgoing.values()) {
+                    lists.add(null);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Adds an edge from one class to another. Returns false, and adds nothing, if either end is not a
+     * generated class (null) or the edge is already there. With a limit, duplicates are only dropped
+     * when the edges are merged, so they are added like any other edge.
+     */
+    public boolean add(Kind kind, ElementId from, ElementId to) {
+        if (from == null || to == null) {
+            return false;
+        }
+        int source = intern(from);
+        int target = intern(to);
+        if (buffer != null) {
+            if (merged != null || sorted != null) {
+                throw new IllegalStateException("edges cannot be added once they were read");
+            }
+            if (source > MAX_SOURCE || added > ORDINAL_MASK) {
+                throw new IllegalStateException("a spilled graph holds at most 2^30 classes and 2^31 - 1 edges");
+            }
+            buffer[buffered] = key(source, kind, added++);
+            bufferTargets[buffered++] = target;
+            if (buffered == buffer.length) {
+                writeRun();
+            }
+            return true;
+        }
+        if (!edges.get(kind).add((long) source << 32 | target)) {
+            return false;
+        }
+        ArrayList<List<ElementId>> lists = outgoing.get(kind);
+        if (lists.get(source) == null) {
+            lists.set(source, new ArrayList<>());
+        }
+        lists.get(source).add(to);
+        size++;
+        return true;
+    }
+
+    /**
+     * Whether the edge was added. Not available with a limit, whose edges are only read in order.
+     */
+    public boolean contains(Kind kind, ElementId from, ElementId to) {
+        if (buffer != null) {
+            throw new UnsupportedOperationException("a spilled graph is only read with targets()");
+        }
+        Integer source = indexes.get(from);
+        Integer target = indexes.get(to);
+        return source != null && target != null && edges.get(kind).contains((long) source << 32 | target);
+    }
+
+    /**
+     * The targets of the edges of kind leaving from, in the order they were first added (in the order of
+     * their index, with a limit).
+     */
+    public List<ElementId> targets(Kind kind, ElementId from) {
+        Integer source = indexes.get(from);
+        if (source == null) {
+            return Collections.emptyList();
+        }
+        if (buffer != null) {
+            return spilledTargets(key(source, kind, 0));
+        }
+        if (outgoing.get(kind).get(source) == null) {
+            return Collections.emptyList();
+        }
+        return outgoing.get(kind).get(source);
+    }
+
+    public int size() {
+        if (buffer != null) {
+            merge();
+        }
+        return size;
+    }
+
+    public void clear() {
+        indexes.clear();
+        ids.clear();
+        for (Kind kind: Kind.values()) {
+            edges.get(kind).clear();
+            outgoing.get(kind).clear();
+        }
+        size = 0;
+        if (buffer != null) {
+            closeReader();
+            for (Path run: runs) {
+                delete(run);
+            }
+            runs.clear();
+            if (merged != null) {
+                delete(merged);
+            }
+            merged = null;
+            sorted = null;
+            sortedTargets = null;
+            buffered = 0;
+            added = 0;
+            firstBuffered = 0;
+            lastQuery = -1;
+        }
+    }
+
+    private static long key(int source, Kind kind, long ordinal) {
+        return (long) source << (ORDINAL_BITS + 2) | ((long) kind.ordinal()) << ORDINAL_BITS | ordinal;
+    }
+
+    // one query at a time, shards may be written concurrently
+    private synchronized List<ElementId> spilledTargets(long first) {
+        merge();
+        long last = first | ORDINAL_MASK;
+        if (first < lastQuery || reader == null) {
+            // asked for an earlier class, which is only ever done while writing shards by package
+            closeReader();
+            reader = sorted != null ? new EdgeReader(sorted, sortedTargets) : new EdgeReader(merged);
+        }
+        lastQuery = first;
+        while (reader.peek() < first) {
+            reader.next();
+        }
+        List<ElementId> targets = null;
+        while (reader.peek() <= last) {
+            if (targets == null) {
+                targets = new ArrayList<>();
+            }
+            reader.next();
+            targets.add(ids.get(reader.target()));
+        }
+        return targets == null ? Collections.<ElementId>emptyList() : targets;
+    }
+
+    // sorts the buffer by key; every target moves along with its key
+    private void sortBuffer() {
+        Arrays.sort(buffer, 0, buffered);
+        int[] targets = new int[buffered];
+        for (int i = 0; i < buffered; i++) {
+            targets[i] = bufferTargets[(int) ((buffer[i] & ORDINAL_MASK) - firstBuffered)];
+        }
+        System.arraycopy(targets, 0, bufferTargets, 0, buffered);
+    }
+
+    private void writeRun() {
+        sortBuffer();
+        try {
+            Path run = Files.createTempFile("uml-edges", ".run");
+            run.toFile().deleteOnExit();
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (int i = 0; i < buffered; i++) {
+                    out.writeLong(buffer[i]);
+                    out.writeInt(bufferTargets[i]);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("cannot spill relations", e);
+        }
+        buffered = 0;
+        firstBuffered = added;
+    }
+
+    // the runs, and what is still buffered, into one sorted file without duplicates
+    private void merge() {
+        if (merged != null || sorted != null) {
+            return;
+        }
+        if (runs.isEmpty()) {
+            sortBuffer();
+            Deduplicator unique = new Deduplicator();
+            int count = 0;
+            for (int i = 0; i < buffered; i++) {
+                if (unique.isFirst(buffer[i], bufferTargets[i])) {
+                    buffer[count] = buffer[i];
+                    bufferTargets[count++] = bufferTargets[i];
+                }
+            }
+            sorted = Arrays.copyOf(buffer, count);
+            sortedTargets = Arrays.copyOf(bufferTargets, count);
+            size = count;
+            buffered = 0;
+            return;
+        }
+        if (buffered > 0) {
+            writeRun();
+        }
+        PriorityQueue<EdgeReader> queue = new PriorityQueue<>((a, b) -> Long.compare(a.peek(), b.peek()));
+        try {
+            merged = Files.createTempFile("uml-edges", ".merged");
+            merged.toFile().deleteOnExit();
+            for (Path run: runs) {
+                queue.add(new EdgeReader(run));
+            }
+            Deduplicator unique = new Deduplicator();
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(merged), 1 << 16))) {
+                while (!queue.isEmpty()) {
+                    EdgeReader run = queue.poll();
+                    long key = run.next();
+                    if (unique.isFirst(key, run.target())) {
+                        out.writeLong(key);
+                        out.writeInt(run.target());
+                        size++;
+                    }
+                    if (run.peek() == Long.MAX_VALUE) {
+                        run.close();
+                    }
+                    else {
+                        queue.add(run);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("cannot spill relations", e);
+        }
+        finally {
+            for (EdgeReader run: queue) {
+                run.close();
+            }
+        }
+        for (Path run: runs) {
+            delete(run);
+        }
+        runs.clear();
+    }
+
+    // drops an edge added before, given the edges in the order of their keys: a class has few edges of a kind
+    private static class Deduplicator {
+        private long group = -1; // source and kind of the edges seen
+        private final HashSet<Integer> targets = new HashSet<>();
+
+        boolean isFirst(long key, int target) {
+            if ((key & ~ORDINAL_MASK) != group) {
+                group = key & ~ORDINAL_MASK;
+                targets.clear();
+            }
+            return targets.add(target);
+        }
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }
+        catch (IOException e) {
+            System.err.println("cannot delete " + file + ": " + e.getMessage());
+        }
+    }
+
+    // reads sorted edges, either from memory or from a file; peek() is Long.MAX_VALUE at the end
+    private static class EdgeReader {
+        private final long[] keys;
+        private final int[] targets;
+        private final DataInputStream in;
+        private int position = 0;
+        private long next;
+        private int nextTarget;
+        private int target; // of the edge next() returned
+
+        EdgeReader(long[] keys, int[] targets) {
+            this.keys = keys;
+            this.targets = targets;
+            this.in = null;
+            advance();
+        }
+
+        EdgeReader(Path file) {
+            this.keys = null;
+            this.targets = null;
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("cannot read spilled relations", e);
+            }
+            advance();
+        }
+
+        long peek() {
+            return next;
+        }
+
+        long next() {
+            long key = next;
+            target = nextTarget;
+            advance();
+            return key;
+        }
+
+        int target() {
+            return target;
+        }
+
+        private void advance() {
+            if (keys != null) {
+                if (position < keys.length) {
+                    nextTarget = targets[position];
+                    next = keys[position++];
+                }
+                else {
+                    next = Long.MAX_VALUE;
+                }
+                return;
+            }
+            try {
+                next = in.readLong();
+                nextTarget = in.readInt();
+            }
+            catch (EOFException e) {
+                next = Long.MAX_VALUE;
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException("cannot read spilled relations", e);
+            }
+        }
+
+        void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // nothing was written, there is nothing to lose
+                }
+            }
+        }
+    }
+}
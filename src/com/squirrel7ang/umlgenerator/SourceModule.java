@@ -0,0 +1,68 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * A source root and what was found under it. When a project has more than one, every module
+ * becomes a UMLPackage of its own; their classes still see each other through one symbol table.
+ * Modules found under the same name are renamed by the parser, see {@link #getName}.
+ */
+public class SourceModule {
+    private final String baseName; // as found, e.g. the directory or the artifactId
+    private final Path root;
+    private final Path dir; // of the module, above its source root
+    private String name;
+    private final List<Path> files = new ArrayList<>(); // sorted
+    private final TreeMap<Path, FileModel> fileModels = new TreeMap<>(); // the files that were not skipped, by path
+
+    public SourceModule(String name, Path root) {
+        this(name, root, ModuleScanner.moduleDir(root));
+    }
+
+    public SourceModule(String name, Path root, Path dir) {
+        this.baseName = name;
+        this.name = name;
+        this.root = root;
+        this.dir = dir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * The name that tells the module apart from the other modules of its parser, and that its classes are
+     * grouped by: the name it was found under, qualified by the directories above it if another module of
+     * the parser was found under the same one.
+     */
+    public String getName() {
+        return name;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    public String getBaseName() {
+        return baseName;
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    List<Path> getFiles() {
+        return files;
+    }
+
+    TreeMap<Path, FileModel> getFileModels() {
+        return fileModels;
+    }
+
+    public boolean contains(Path path) {
+        return path.startsWith(root);
+    }
+}
@@ -0,0 +1,150 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the source files under a root, pruning excluded directories before anything below them is read.
+ */
+public class SourceScanner {
+    private final ParserConfig config;
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+
+    public SourceScanner(ParserConfig config) {
+        this.config = config;
+        for (String glob: config.getIncludes()) {
+            addGlob(includes, glob);
+        }
+        for (String glob: config.getExcludes()) {
+            addGlob(excludes, glob);
+        }
+    }
+
+    // **/ stands for any number of directories, none included: **/generated also matches generated itself,
+    // which a glob matcher alone only does below some directory
+    private static void addGlob(List<PathMatcher> matchers, String glob) {
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        while (glob.startsWith("**/")) {
+            glob = glob.substring(3);
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+    }
+
+    /**
+     * Returns the matching files under root, sorted so that the output does not depend on the file system.
+     */
+    public List<Path> scan(Path root) throws IOException {
+        return scan(root, root);
+    }
+
+    /**
+     * Returns the matching files under start, a directory inside root. The globs still apply relative to root.
+     */
+    public List<Path> scan(Path root, Path start) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path parent = start.getParent();
+        if (!start.equals(root) && parent != null && isExcludedDir(root, parent)) {
+            return files;
+        }
+        Set<FileVisitOption> options = config.isFollowLinks()
+                ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+        Files.walkFileTree(start, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.equals(root)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path relative = root.relativize(dir);
+                if (matches(excludes, relative) || isExcludedPackageDir(relative)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Path relative = file.equals(root) ? file.getFileName() : root.relativize(file);
+                if (matches(includes, relative) && !matches(excludes, relative)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("cannot read " + file + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
+
+    /**
+     * Tells whether scan(root) would return file, without walking anything.
+     */
+    public boolean accepts(Path root, Path file) {
+        Path relative = file.equals(root) ? file.getFileName() : root.relativize(file);
+        if (!matches(includes, relative) || matches(excludes, relative)) {
+            return false;
+        }
+        Path parent = file.getParent();
+        return file.equals(root) || parent == null || !isExcludedDir(root, parent);
+    }
+
+    // whether dir, or any directory between root and dir, would be pruned
+    private boolean isExcludedDir(Path root, Path dir) {
+        for (Path d = dir; d != null && !d.equals(root) && d.startsWith(root); d = d.getParent()) {
+            Path relative = root.relativize(d);
+            if (matches(excludes, relative) || isExcludedPackageDir(relative)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher: matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // com/oocourse right under the source root holds the com.oocourse package. Deeper, e.g. org/com/oocourse,
+    // it is another package; those, and packages under a root that is not a source root, are left to the
+    // package declarations
+    private boolean isExcludedPackageDir(Path relative) {
+        for (String packageName: config.getExcludedPackages()) {
+            String[] parts = packageName.split("\\.");
+            if (relative.getNameCount() != parts.length) {
+                continue;
+            }
+            boolean same = true;
+            for (int i = 0; i < parts.length && same; i++) {
+                same = relative.getName(i).toString().equals(parts[i]);
+            }
+            if (same) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
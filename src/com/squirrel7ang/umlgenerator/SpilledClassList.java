@@ -0,0 +1,152 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * Class models kept in a temporary file rather than on the heap, for projects too large for it. Only the
+ * offset and the module of every class stay in memory. A class is read back whenever it is asked for, which
+ * costs little as long as the classes are visited in order: the reader then goes on where it stopped.
+ * The file is created by the first add and deleted by {@link #close}, after which the list is empty.
+ */
+public class SpilledClassList extends AbstractList<ClassModel> {
+    private FileChannel channel = null; // appended to at length, read from any offset
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(); // the class being added
+    private long[] offsets = new long[1024];
+    private String[] modules = new String[1024];
+    private int size = 0;
+    private long length = 0;
+
+    private DataInputStream in = null;
+    private int next = -1; // the index in reads next
+    private int lastIndex = -1;
+    private ClassModel last = null; // asked for again and again while a class is written
+
+    @Override
+    public synchronized boolean add(ClassModel cls) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            modules = Arrays.copyOf(modules, size * 2);
+        }
+        try {
+            if (channel == null) {
+                Path file = Files.createTempFile("uml-classes", ".spill");
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            record.reset();
+            cls.write(new DataOutputStream(record));
+            // a write at a position leaves the position of the reader alone
+            ByteBuffer bytes = ByteBuffer.wrap(record.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, length + bytes.position());
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("cannot spill classes", e);
+        }
+        offsets[size] = length;
+        modules[size] = cls.getModule();
+        length += record.size();
+        size++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, ClassModel cls) {
+        // a class can only go at the end of the file
+        if (index != size()) {
+            throw new UnsupportedOperationException("classes can only be appended");
+        }
+        add(cls);
+    }
+
+    @Override
+    public synchronized ClassModel get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        if (index == lastIndex) {
+            return last;
+        }
+        try {
+            if (in == null || index != next) {
+                in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(channel.position(offsets[index])), 1 << 16));
+            }
+            last = ClassModel.read(in);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("cannot read spilled classes", e);
+        }
+        last.setModule(modules[index]);
+        lastIndex = index;
+        next = index + 1;
+        return last;
+    }
+
+    /**
+     * The module of the class at index, which unlike the class itself is never read back from the file.
+     */
+    public synchronized String getModule(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return modules[index];
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        try {
+            if (channel != null) {
+                channel.truncate(0);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("cannot spill classes", e);
+        }
+        reset();
+    }
+
+    /**
+     * Deletes the file and empties the list. Adding to it again creates a new file.
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                System.err.println("cannot delete spilled classes: " + e.getMessage());
+            }
+            channel = null;
+        }
+        reset();
+    }
+
+    private void reset() {
+        size = 0;
+        length = 0;
+        in = null;
+        next = -1;
+        lastIndex = -1;
+        last = null;
+    }
+}
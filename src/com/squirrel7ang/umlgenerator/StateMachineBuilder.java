@@ -0,0 +1,203 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The state machine of one class, built from its @Trigger transitions. States are interned to small indexes
+ * the first time they are named, so that a state is looked up in constant time and states of other classes
+ * never get in the way; a transition that is already there is not added again.
+ */
+public class StateMachineBuilder {
+    private static final String INIT_STATE = "InitState";
+    private static final String FINAL_STATE = "FinalState";
+
+    private final ElementId parentId;
+    private final String name;
+    private final HashMap<String, Integer> stateIndexes = new HashMap<>();
+    private final ArrayList<String> states = new ArrayList<>(); // by index
+    private final HashSet<Edge> edges = new HashSet<>();
+    private final ArrayList<Edge> transitions = new ArrayList<>(); // in the order they were added
+
+    public StateMachineBuilder(ElementId parentId, String name) {
+        this.parentId = parentId;
+        this.name = name;
+    }
+
+    public StateMachineBuilder addAll(List<ClassModel.Transition> transitions) {
+        for (ClassModel.Transition transition: transitions) {
+            add(transition.getFrom(), transition.getTo(), transition.getName());
+        }
+        return this;
+    }
+
+    /**
+     * Adds a transition from one state to another, triggered by method. Returns false, and adds nothing,
+     * if the machine has it already.
+     */
+    public boolean add(String from, String to, String method) {
+        Edge edge = new Edge(intern(from), intern(to), method);
+        if (!edges.add(edge)) {
+            return false;
+        }
+        transitions.add(edge);
+        return true;
+    }
+
+    private int intern(String state) {
+        Integer index = stateIndexes.get(state);
+        if (index == null) {
+            index = states.size();
+            stateIndexes.put(state, index);
+            states.add(state);
+        }
+        return index;
+    }
+
+    public boolean isEmpty() {
+        return transitions.isEmpty();
+    }
+
+    public JSONObject build() {
+        JSONObject json = new JSONObject();
+        ElementId id = parentId.child('/', "StateMachine");
+
+        json.put("name", name);
+        json.put("_id", id.toString());
+        json.put("_type", "UMLStateMachine");
+        json.put("_parent", getRef(parentId));
+
+        JSONArray ownedElements = new JSONArray();
+        ownedElements.put(getStatechartDiagram(id));
+        JSONArray regions = new JSONArray();
+        regions.put(getUmlRegion(id));
+
+        json.put("ownedElements", ownedElements);
+        json.put("regions", regions);
+
+        return json;
+    }
+
+    private JSONObject getUmlRegion(ElementId parentId) {
+        JSONObject json = new JSONObject();
+        ElementId id = parentId.child('/', "Region1");
+
+        json.put("_id", id.toString());
+        json.put("_type", "UMLRegion");
+        json.put("_parent", getRef(parentId));
+
+        ElementId[] stateIds = new ElementId[states.size()];
+        JSONArray vertices = new JSONArray();
+        for (int i = 0; i < states.size(); i++) {
+            stateIds[i] = id.child('/', states.get(i));
+            vertices.put(getUmlState(id, stateIds[i], states.get(i)));
+        }
+
+        JSONArray transitions = new JSONArray();
+        for (Edge edge: this.transitions) {
+            String from = states.get(edge.from);
+            String to = states.get(edge.to);
+
+            JSONObject transition = new JSONObject();
+            ElementId tranId = id.child('>', from).child('>', to).child('>', edge.method);
+            transition.put("name", edge.method);
+            transition.put("_id", tranId.toString());
+            transition.put("_type", "UMLTransition");
+            transition.put("_parent", getRef(id));
+
+            transition.put("source", getRef(stateIds[edge.from]));
+            transition.put("target", getRef(stateIds[edge.to]));
+
+            JSONArray trigs = new JSONArray();
+            trigs.put(getUmlEvent(tranId, edge.method));
+
+            transition.put("triggers", trigs);
+
+            transitions.put(transition);
+        }
+
+        json.put("vertices", vertices);
+        json.put("transitions", transitions);
+
+        return json;
+    }
+
+    private static JSONObject getUmlState(ElementId parentId, ElementId vertexId, String stateName) {
+        JSONObject obj = new JSONObject();
+        obj.put("name", stateName);
+        obj.put("_id", vertexId.toString());
+        obj.put("_parent", getRef(parentId));
+        if (stateName.equals(INIT_STATE)) {
+            obj.put("_type", "UMLPseudostate");
+            obj.put("kind", "initial");
+        }
+        else if (stateName.equals(FINAL_STATE)) {
+            obj.put("_type", "UMLFinalState");
+        }
+        else {
+            obj.put("_type", "UMLState");
+        }
+        return obj;
+    }
+
+    private static JSONObject getUmlEvent(ElementId parentId, String methodName) {
+        JSONObject json = new JSONObject();
+        ElementId id = parentId.child('/', "event");
+
+        json.put("name", methodName);
+        json.put("_id", id.toString());
+        json.put("_type", "UMLEvent");
+        json.put("_parent", getRef(parentId));
+
+        return json;
+    }
+
+    private static JSONObject getStatechartDiagram(ElementId parentId) {
+        JSONObject json = new JSONObject();
+        ElementId id = parentId.child('/', "StatechartDiagram1");
+
+        json.put("name", "StatechartDiagram1");
+        json.put("_id", id.toString());
+        json.put("_type", "UMLStatechartDiagram");
+        json.put("_parent", getRef(parentId));
+
+        return json;
+    }
+
+    private static JSONObject getRef(ElementId id) {
+        JSONObject json = new JSONObject();
+        json.put("$ref", id.toString());
+        return json;
+    }
+
+    private static class Edge {
+        private final int from;
+        private final int to;
+        private final String method;
+
+        Edge(int from, int to, String method) {
+            this.from = from;
+            this.to = to;
+            this.method = method;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Edge)) {
+                return false;
+            }
+            Edge edge = (Edge) object;
+            return from == edge.from && to == edge.to && method.equals(edge.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return (from * 31 + to) * 31 + method.hashCode();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.squirrel7ang.umlgenerator;
+
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wall time per stage and counters of one generation, totalled over every time a stage ran.
+ * Counters may be updated from the worker threads.
+ */
+public class Stats {
+    public enum Stage {
+        WALK("walk"),
+        CACHE("cache"),
+        PARSE("parse"),
+        MODEL("model"),
+        OUTPUT("output"),
+        OUTPUT_IO("outputIo"); // the part of OUTPUT spent writing to the file
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Counter {
+        FILES_SCANNED("filesScanned"),
+        FILES_SKIPPED("filesSkipped"), // excluded, missing or unparsable
+        FILES_PARSED("filesParsed"),
+        FILES_CACHED("filesCached"),
+        CLASSES("classes"),
+        ATTRIBUTES("attributes"),
+        OPERATIONS("operations"),
+        RELATIONS("relations"),
+        TRIGGERS("triggers"),
+        BYTES_WRITTEN("bytesWritten");
+
+        private final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    private final long created = System.nanoTime();
+    private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * Adds the time elapsed since start, a {@link System#nanoTime()}, to stage.
+     */
+    public void time(Stage stage, long start) {
+        addNanos(stage, System.nanoTime() - start);
+    }
+
+    public void addNanos(Stage stage, long delta) {
+        nanos.addAndGet(stage.ordinal(), delta);
+    }
+
+    public void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public void set(Counter counter, long value) {
+        counters.set(counter.ordinal(), value);
+    }
+
+    public long getNanos(Stage stage) {
+        return nanos.get(stage.ordinal());
+    }
+
+    public long get(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * The most heap the JVM has used so far, summed over the heap pools.
+     */
+    public static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-16s%10.1f ms%n", "total", millis(System.nanoTime() - created)));
+        for (Stage stage: Stage.values()) {
+            sb.append(String.format("  %-14s%10.1f ms%n", stage.key, millis(getNanos(stage))));
+        }
+        for (Counter counter: Counter.values()) {
+            sb.append(String.format("%-16s%10d%n", counter.key, get(counter)));
+        }
+        sb.append(String.format("%-16s%10.1f MiB%n", "peakHeap", peakHeap() / (1024.0 * 1024.0)));
+        return sb.toString();
+    }
+
+    public JSONObject toJson() {
+        JSONObject stages = new JSONObject();
+        for (Stage stage: Stage.values()) {
+            stages.put(stage.key, millis(getNanos(stage)));
+        }
+        JSONObject json = new JSONObject();
+        json.put("totalMs", millis(System.nanoTime() - created));
+        json.put("stagesMs", stages);
+        for (Counter counter: Counter.values()) {
+            json.put(counter.key, get(counter));
+        }
+        json.put("peakHeapBytes", peakHeap());
+        return json;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,31 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One shared instance of every type name and member name, so that a project with a thousand
+ * {@code String name} fields keeps a single "String" and a single "name". Safe on any thread.
+ *
+ * <p>A pool serves one run of a parser, or one read of a model file, and is cleared or dropped with it:
+ * the models keep the shared names, while a daemon or a batch does not keep the names of every project
+ * it has seen.
+ */
+public final class SymbolPool {
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    public String intern(String symbol) {
+        if (symbol == null) {
+            return null;
+        }
+        String pooled = pool.putIfAbsent(symbol, symbol);
+        return pooled == null ? symbol : pooled;
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    public void clear() {
+        pool.clear();
+    }
+}
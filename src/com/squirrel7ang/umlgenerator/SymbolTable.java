@@ -0,0 +1,66 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.util.HashMap;
+
+/**
+ * The generated classes indexed by fully-qualified name.
+ * Names written in the source are resolved the way javac would, through the imports of the using class.
+ */
+public class SymbolTable {
+    private final HashMap<String, ElementId> byQualifiedName = new HashMap<>();
+
+    /**
+     * Registers a class. Returns false, and keeps the first one, if the name is already taken.
+     */
+    public boolean add(ClassModel cls, ElementId id) {
+        String qualifiedName = cls.getQualifiedName();
+        if (byQualifiedName.containsKey(qualifiedName)) {
+            return false;
+        }
+        byQualifiedName.put(qualifiedName, id);
+        return true;
+    }
+
+    public ElementId get(String qualifiedName) {
+        return byQualifiedName.get(qualifiedName);
+    }
+
+    public void clear() {
+        byQualifiedName.clear();
+    }
+
+    /**
+     * Resolves a type name used inside context to the id of a generated class, or null if it names
+     * anything else (a JDK or library type, a generic or array type, a type variable...).
+     */
+    public ElementId resolve(String name, ClassModel context) {
+        if (name.indexOf('<') >= 0 || name.indexOf('[') >= 0) {
+            return null;
+        }
+        if (name.indexOf('.') >= 0) {
+            return byQualifiedName.get(name);
+        }
+        // a single-type import shadows everything else, even when it imports a class we do not generate
+        for (String imported: context.getImports()) {
+            if (imported.length() > name.length() && imported.endsWith(name)
+                    && imported.charAt(imported.length() - name.length() - 1) == '.') {
+                return byQualifiedName.get(imported);
+            }
+        }
+        ElementId id = byQualifiedName.get(qualify(context.getPackageName(), name));
+        if (id != null) {
+            return id;
+        }
+        for (String packageName: context.getWildcardImports()) {
+            id = byQualifiedName.get(qualify(packageName, name));
+            if (id != null) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    public static String qualify(String packageName, String name) {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+}
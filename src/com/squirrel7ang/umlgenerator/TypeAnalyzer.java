@@ -0,0 +1,102 @@
+package com.squirrel7ang.umlgenerator;
+
+import com.github.javaparser.ast.type.ArrayType;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.IntersectionType;
+import com.github.javaparser.ast.type.ReferenceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.type.UnionType;
+import com.github.javaparser.ast.type.WildcardType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the classes a type refers to, e.g. Map, String, List and Foo in {@code Map<String, List<Foo>[]>}.
+ * Every kind of type is taken apart: arrays by their component, wildcards by their bound, while primitives
+ * and void refer to nothing. Domain models repeat a few signatures over thousands of fields, so the result
+ * is remembered for every signature; the extractor threads share it.
+ */
+public class TypeAnalyzer {
+    private final ConcurrentHashMap<String, List<String>> referenced = new ConcurrentHashMap<>(); // by signature
+    private final SymbolPool symbols;
+
+    public TypeAnalyzer(SymbolPool symbols) {
+        this.symbols = symbols;
+    }
+
+    /**
+     * The names of the classes type refers to, as written and each once, outermost first.
+     * signature is the type as written, which identifies it.
+     */
+    public List<String> referencedTypes(Type type, String signature) {
+        if (type instanceof ClassOrInterfaceType && isSimple((ClassOrInterfaceType) type)) {
+            // the common case, cheaper than a lookup
+            return Collections.singletonList(signature);
+        }
+        List<String> names = referenced.get(signature);
+        if (names == null) {
+            Set<String> found = new LinkedHashSet<>();
+            collect(type, found);
+            names = found.isEmpty() ? Collections.<String>emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(found));
+            referenced.putIfAbsent(signature, names);
+        }
+        return names;
+    }
+
+    public int size() {
+        return referenced.size();
+    }
+
+    /**
+     * Forgets every signature, whose names belong to a pool about to be cleared.
+     */
+    public void clear() {
+        referenced.clear();
+    }
+
+    private static boolean isSimple(ClassOrInterfaceType type) {
+        return !type.getScope().isPresent() && !type.getTypeArguments().isPresent()
+                && type.getAnnotations().isEmpty();
+    }
+
+    private void collect(Type type, Set<String> found) {
+        if (type instanceof ClassOrInterfaceType) {
+            ClassOrInterfaceType cls = (ClassOrInterfaceType) type;
+            found.add(symbols.intern(cls.getNameWithScope()));
+            if (cls.getTypeArguments().isPresent()) {
+                for (Type argument: cls.getTypeArguments().get()) {
+                    collect(argument, found);
+                }
+            }
+        }
+        else if (type instanceof ArrayType) {
+            collect(((ArrayType) type).getElementType(), found);
+        }
+        else if (type instanceof WildcardType) {
+            WildcardType wildcard = (WildcardType) type;
+            if (wildcard.getExtendedType().isPresent()) {
+                collect(wildcard.getExtendedType().get(), found);
+            }
+            if (wildcard.getSuperType().isPresent()) {
+                collect(wildcard.getSuperType().get(), found);
+            }
+        }
+        else if (type instanceof UnionType) {
+            for (ReferenceType element: ((UnionType) type).getElements()) {
+                collect(element, found);
+            }
+        }
+        else if (type instanceof IntersectionType) {
+            for (ReferenceType element: ((IntersectionType) type).getElements()) {
+                collect(element, found);
+            }
+        }
+        // primitives, void, var and unknown types refer to no class
+    }
+}
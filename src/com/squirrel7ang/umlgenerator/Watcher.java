@@ -0,0 +1,136 @@
+package com.squirrel7ang.umlgenerator;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the output again whenever a source file under one of the roots changes, until the process is stopped.
+ * A burst of events (an IDE saving every file, a git checkout) is collected until the tree has been quiet
+ * for {@link #QUIET_MILLIS}, then only the files that changed are parsed again.
+ */
+public class Watcher {
+    private static final long QUIET_MILLIS = 200;
+
+    private final ProjectParser parser;
+    private final List<Path> roots;
+    private final Path output;
+    private final WatchService service;
+    private final HashMap<WatchKey, Path> directories = new HashMap<>(); // from a key to the directory it watches
+
+    public Watcher(ProjectParser parser, List<Path> roots, Path output) throws IOException {
+        this.parser = parser;
+        this.roots = roots;
+        this.output = output;
+        this.service = output.getFileSystem().newWatchService();
+        for (Path root: roots) {
+            register(root);
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        System.out.println("watching " + roots + ", press Ctrl-C to stop");
+        while (true) {
+            Set<Path> changed = new TreeSet<>();
+            boolean overflow = false;
+            WatchKey key = service.take();
+            while (key != null) {
+                overflow |= collect(key, changed);
+                key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (overflow) {
+                // events were lost, so anything may have changed
+                changed.clear();
+                changed.addAll(roots);
+            }
+
+            long start = System.nanoTime();
+            try {
+                if (parser.update(changed)) {
+                    write();
+                    System.out.printf("%s written, %d paths changed, %.1f ms%n",
+                            output, changed.size(), (System.nanoTime() - start) / 1e6);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                // the next save may well fix it, so the watch goes on
+                System.err.println("update fail: " + e + (e.getCause() != null ? ": " + e.getCause() : ""));
+            }
+        }
+    }
+
+    // returns true if events were lost
+    private boolean collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path dir = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event: key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            changed.add(path);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+            }
+        }
+        if (!key.reset()) {
+            // the directory is gone
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                System.err.println("cannot watch " + file + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    // StarUML may have the file open, so it must never see half of it
+    private void write() throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, output.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            parser.writeStaruml(channel);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        try {
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}